@@ -0,0 +1,404 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.MessageException;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.security.AuthMD5;
+import org.snmp4j.security.PrivAES128;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+/**
+ * @description Loopback HOST-RESOURCES-MIB agents for load tests of the poller on a single box.
+ * 	sim.agents agents listen on sim.host ports sim.base.port.., every sim.v3.every-th one is SNMPv3 (AuthMD5 / PrivAES128,
+ * 	user sim.v3.user, sim.v3.password for auth and priv, like SnmpWorker), the others v2c (sim.community).
+ * 	Every v3 agent has its own USM and authoritative engine ID, so the poller discovers and localizes keys per agent
+ * 	as it would for a fleet of real devices.
+ * 	All agents share one virtual MIB : sysUpTime, hrStorageEntry (sim.storage.rows), hrProcessorLoad (sim.cpus),
+ * 	hrSWRunName and hrSWRunPerfMem (sim.processes). Values are computed per agent and drift over time.
+ *
+ * 	Faults
+ * 	- sim.latency.millis + random 0..sim.latency.jitter.millis before every response
+ * 	- sim.loss.percent of the requests get no response
+ * 	- responses of more than sim.toobig.varbinds varbinds (0 = no limit) :
+ * 	  sim.toobig.mode=error -> tooBig error status, truncate -> GETBULK response cut to the limit
+ *
+ * 	sim.servers.file is written with one line per agent (<ip>/<port>), use it with -Dpoller.servers.file.
+ * 	usage : AgentSimulator   (every sim.* key can be given as -Dsim.key=value)
+ */
+public class AgentSimulator implements CommandResponder {
+
+	private final static OID sysUpTime = new OID(".1.3.6.1.2.1.1.3.0");
+	private final static String hrStorageEntry = ".1.3.6.1.2.1.25.2.3.1";
+	private final static String hrProcessorLoad = ".1.3.6.1.2.1.25.3.3.1.2";
+	private final static String hrSWRunEntry = ".1.3.6.1.2.1.25.4.2.1";
+	private final static String hrSWRunPerfEntry = ".1.3.6.1.2.1.25.5.1.1";
+	private final static OID hrStorageRam = new OID(".1.3.6.1.2.1.25.2.1.2");
+	private final static OID hrStorageVirtualMemory = new OID(".1.3.6.1.2.1.25.2.1.3");
+	private final static OID hrStorageFixedDisk = new OID(".1.3.6.1.2.1.25.2.1.4");
+
+	// value kinds of the virtual MIB
+	private final static int UPTIME = 0, ST_INDEX = 1, ST_TYPE = 2, ST_DESCR = 3, ST_UNITS = 4, ST_SIZE = 5, ST_USED = 6,
+			ST_FAILURES = 7, CPU_LOAD = 8, RUN_INDEX = 9, RUN_NAME = 10, PERF_CPU = 11, PERF_MEM = 12;
+
+	private final String host;
+	private final int basePort;
+	private final int agents;
+	private final long latencyMills;
+	private final long jitterMills;
+	private final double lossPercent;
+	private final int tooBigVarbinds;
+	private final boolean tooBigTruncate;
+	private final long startMills = System.currentTimeMillis();
+
+	/**
+	 * sorted oids of the virtual MIB with their value kind and row
+	 * */
+	private OID[] oids;
+	private int[] kinds;
+	private int[] rows;
+
+	private final ScheduledExecutorService responders;
+	private final List<Snmp> sessions = new ArrayList<>();
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong responses = new AtomicLong();
+	private final AtomicLong lost = new AtomicLong();
+	private final AtomicLong tooBig = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		PollerConfig config = PollerConfig.getInstance();
+		AgentSimulator sim = new AgentSimulator(config.getString("sim.host", "127.0.0.1"),
+				config.getInt("sim.base.port", 20000),
+				config.getInt("sim.agents", 1000),
+				config.getInt("sim.storage.rows", 10),
+				config.getInt("sim.cpus", 4),
+				config.getInt("sim.processes", 200),
+				config.getLong("sim.latency.millis", 0),
+				config.getLong("sim.latency.jitter.millis", 0),
+				Double.parseDouble(config.getString("sim.loss.percent", "0")),
+				config.getInt("sim.toobig.varbinds", 0),
+				"truncate".equals(config.getString("sim.toobig.mode", "error")),
+				config.getInt("sim.threads", 4));
+		sim.start(config.getString("sim.community", "public"), config.getInt("sim.v3.every", 0),
+				config.getString("sim.v3.user", "simuser"), config.getString("sim.v3.password", "simpass123"),
+				config.getString("sim.servers.file", "config/servers-sim.txt"));
+
+		long reportMills = config.getLong("sim.report.seconds", 60) * 1000;
+		while (true) {
+			Thread.sleep(reportMills);
+			System.out.println("simulator requests:" + sim.requests + ", responses:" + sim.responses + ", lost:" + sim.lost + ", tooBig:" + sim.tooBig);
+		}
+	}
+
+	public AgentSimulator(String host, int basePort, int agents, int storageRows, int cpus, int processes,
+			long latencyMills, long jitterMills, double lossPercent, int tooBigVarbinds, boolean tooBigTruncate, int threads) {
+		this.host = host;
+		this.basePort = basePort;
+		this.agents = agents;
+		this.latencyMills = latencyMills;
+		this.jitterMills = jitterMills;
+		this.lossPercent = lossPercent;
+		this.tooBigVarbinds = tooBigVarbinds;
+		this.tooBigTruncate = tooBigTruncate;
+		this.responders = Executors.newScheduledThreadPool(Math.max(1, threads), r -> {
+			Thread t = new Thread(r, "sim-responder");
+			t.setDaemon(true);
+			return t;
+		});
+		buildMib(storageRows, cpus, processes);
+	}
+
+	/**
+	 * @description open every agent port and write the servers file
+	 * @param community v2c community
+	 * @param v3Every every n-th agent is v3, 0 for none
+	 * @param v3User
+	 * @param v3Password
+	 * @param serversFile null to write none
+	 */
+	public void start(String community, int v3Every, String v3User, String v3Password, String serversFile) throws IOException {
+		SecurityProtocols.getInstance().addDefaultProtocols();
+
+		// v2c agents : one dispatcher per 500 ports, every transport mapping has its own listen thread
+		// v3 agents : one dispatcher each, its MPv3 keeps its own usm and engine ID (derived from the port) to itself,
+		// the poller's USM in SecurityModels is left alone when both run in one jvm
+		Snmp snmp = null;
+		int v2c = 0;
+		for (int i=0; i<agents; i++) {
+			int port = basePort + i;
+			if (isV3(i, v3Every)) {
+				USM usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID(new OctetString("sim" + port))), 0);
+				usm.addUser(new OctetString(v3User), new UsmUser(new OctetString(v3User), AuthMD5.ID, new OctetString(v3Password),
+						PrivAES128.ID, new OctetString(v3Password)));
+				MessageDispatcherImpl dispatcher = new MessageDispatcherImpl();
+				dispatcher.addMessageProcessingModel(new MPv3(usm));
+				Snmp agent = new Snmp(dispatcher, new DefaultUdpTransportMapping(new UdpAddress(host + "/" + port)));
+				agent.addCommandResponder(this);
+				sessions.add(agent);
+				continue;
+			}
+			if (v2c++ % 500 == 0) {
+				MessageDispatcherImpl dispatcher = new MessageDispatcherImpl();
+				dispatcher.addMessageProcessingModel(new MPv2c());
+				snmp = new Snmp(dispatcher);
+				snmp.addCommandResponder(this);
+				sessions.add(snmp);
+			}
+			snmp.addTransportMapping(new DefaultUdpTransportMapping(new UdpAddress(host + "/" + port)));
+		}
+		for (Snmp session : sessions) {
+			session.listen();
+		}
+
+		if (serversFile != null) {
+			File file = new File(serversFile);
+			if (file.getAbsoluteFile().getParentFile() != null) file.getAbsoluteFile().getParentFile().mkdirs();
+			try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+				for (int i=0; i<agents; i++) {
+					boolean v3 = isV3(i, v3Every);
+					out.println(String.format("sim%05d,%s/%d,%s,%s,%s", i, host, basePort + i,
+							v3 ? v3User : community, v3 ? "v3" : "v2c", v3 ? v3Password : "passwd"));
+				}
+			}
+		}
+		System.out.println("simulator started, agents:" + agents + " on " + host + "/" + basePort + ".." + (basePort + agents - 1)
+				+ ", mib oids:" + oids.length + ", latency:" + latencyMills + "+" + jitterMills + "ms, loss:" + lossPercent
+				+ "%, tooBig over:" + tooBigVarbinds + (tooBigTruncate ? " (truncate)" : " (error)")
+				+ (serversFile == null ? "" : ", servers file:" + serversFile));
+	}
+
+	private static boolean isV3(int agent, int v3Every) {
+		return v3Every > 0 && (agent + 1) % v3Every == 0;
+	}
+
+	public void stop() {
+		for (Snmp session : sessions) {
+			try {
+				session.close();
+			} catch (IOException e) {
+				System.err.println("simulator close exception : " + e);
+			}
+		}
+		responders.shutdownNow();
+	}
+
+	@Override
+	public void processPdu(final CommandResponderEvent event) {
+		event.setProcessed(true);
+		requests.incrementAndGet();
+		if (lossPercent > 0 && ThreadLocalRandom.current().nextDouble() * 100 < lossPercent) {
+			lost.incrementAndGet();
+			return;
+		}
+		final PDU response = respond(event.getPDU(), ((UdpAddress) event.getTransportMapping().getListenAddress()).getPort() - basePort);
+		long delay = latencyMills + (jitterMills > 0 ? ThreadLocalRandom.current().nextLong(jitterMills + 1) : 0);
+		if (delay > 0) {
+			responders.schedule(() -> send(event, response), delay, TimeUnit.MILLISECONDS);
+		} else {
+			send(event, response);
+		}
+	}
+
+	private void send(CommandResponderEvent event, PDU response) {
+		try {
+			event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(), event.getSecurityModel(),
+					event.getSecurityName(), event.getSecurityLevel(), response, event.getMaxSizeResponsePDU(),
+					event.getStateReference(), new StatusInformation());
+			responses.incrementAndGet();
+		} catch (MessageException e) {
+			// larger than the manager accepts (clear() also resets the request ID)
+			Integer32 requestID = response.getRequestID();
+			response.clear();
+			response.setRequestID(requestID);
+			response.setErrorStatus(PDU.tooBig);
+			tooBig.incrementAndGet();
+			try {
+				event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(), event.getSecurityModel(),
+						event.getSecurityName(), event.getSecurityLevel(), response, event.getMaxSizeResponsePDU(),
+						event.getStateReference(), new StatusInformation());
+			} catch (MessageException e2) {
+				System.err.println("simulator response failed : " + e2);
+			}
+		}
+	}
+
+	private PDU respond(PDU request, int agent) {
+		PDU response = (PDU) request.clone();
+		response.clear();
+		response.setType(PDU.RESPONSE);
+		response.setRequestID(request.getRequestID());
+		response.setErrorStatus(PDU.noError);
+		response.setErrorIndex(0);
+
+		int limit = tooBigVarbinds > 0 ? tooBigVarbinds : Integer.MAX_VALUE;
+		if (request.getType() == PDU.GETBULK) {
+			int n = request.size();
+			int nonRepeaters = Math.min(n, Math.max(0, request.getNonRepeaters()));
+			OID[] current = new OID[n];
+			for (int i=0; i<n; i++) {
+				current[i] = request.get(i).getOid();
+			}
+			for (int i=0; i<nonRepeaters; i++) {
+				response.add(next(current[i], agent));
+			}
+			int repetitions = Math.max(0, request.getMaxRepetitions());
+			outer:
+			for (int r=0; r<repetitions && n > nonRepeaters; r++) {
+				boolean all = true;
+				for (int i=nonRepeaters; i<n; i++) {
+					if (response.size() >= limit) {
+						if (tooBigTruncate) break outer;
+						return tooBig(response);
+					}
+					VariableBinding vb = next(current[i], agent);
+					response.add(vb);
+					current[i] = vb.getOid();
+					all &= vb.getVariable() == Null.endOfMibView;
+				}
+				if (all) break;
+			}
+		} else {
+			for (VariableBinding vb : request.getVariableBindings()) {
+				response.add(request.getType() == PDU.GETNEXT ? next(vb.getOid(), agent) : get(vb.getOid(), agent));
+			}
+			if (response.size() > limit) {
+				return tooBig(response);
+			}
+		}
+		return response;
+	}
+
+	private PDU tooBig(PDU response) {
+		tooBig.incrementAndGet();
+		Integer32 requestID = response.getRequestID();
+		response.clear();
+		response.setRequestID(requestID);
+		response.setErrorStatus(PDU.tooBig);
+		return response;
+	}
+
+	private VariableBinding get(OID oid, int agent) {
+		int i = Arrays.binarySearch(oids, oid);
+		return new VariableBinding(oid, i < 0 ? Null.noSuchInstance : value(kinds[i], rows[i], agent));
+	}
+
+	private VariableBinding next(OID oid, int agent) {
+		int i = Arrays.binarySearch(oids, oid);
+		i = i < 0 ? -i - 1 : i + 1;
+		if (i >= oids.length) {
+			return new VariableBinding(oid, Null.endOfMibView);
+		}
+		return new VariableBinding(oids[i], value(kinds[i], rows[i], agent));
+	}
+
+	/**
+	 * @description value of a MIB entry for one agent, drifting slowly so deadbands and rollups see movement
+	 */
+	private Variable value(int kind, int row, int agent) {
+		long now = System.currentTimeMillis();
+		int seed = mix(agent * 31 + row);
+		switch (kind) {
+		case UPTIME : return new TimeTicks((now - startMills) / 10 + (seed & 0xffff) * 100L);
+		case ST_INDEX : return new Integer32(row);
+		case ST_TYPE : return row == 1 ? hrStorageRam : row <= 3 ? hrStorageVirtualMemory : hrStorageFixedDisk;
+		case ST_DESCR : return new OctetString(row == 1 ? "Physical memory" : row == 2 ? "Swap space" : row == 3 ? "Virtual memory" : "/disk" + row);
+		case ST_UNITS : return new Integer32(row <= 3 ? 1024 : 4096);
+		case ST_SIZE : return new Integer32(size(seed));
+		case ST_USED : return new Integer32((int) (size(seed) * drift(seed, now, 600000) * 0.9));
+		case ST_FAILURES : return new org.snmp4j.smi.Counter32(0);
+		case CPU_LOAD : return new Integer32((int) (drift(seed, now, 60000) * 100));
+		case RUN_INDEX : return new Integer32(row);
+		case RUN_NAME : return new OctetString("proc" + (row % 97) + "_" + row);
+		case PERF_CPU : return new Integer32((int) ((now - startMills) / 10 * (seed & 7) / 100));
+		case PERF_MEM : return new Integer32(1024 + (int) (drift(seed, now, 120000) * (seed & 0xffff)));
+		default : return Null.noSuchObject;
+		}
+	}
+
+	private static int size(int seed) {
+		return 1000000 + (seed & 0xfffff);
+	}
+
+	/**
+	 * @return {double} 0..1, moving along a triangle wave of the period, phase from the seed
+	 */
+	private static double drift(int seed, long now, long periodMills) {
+		long phase = (now + (seed & 0x7fffffff) % periodMills) % periodMills;
+		double x = (double) phase / periodMills;
+		return x < 0.5 ? x * 2 : (1 - x) * 2;
+	}
+
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private void buildMib(int storageRows, int cpus, int processes) {
+		List<Object[]> entries = new ArrayList<>();
+		entries.add(new Object[] {sysUpTime, UPTIME, 0});
+		int[] storageKinds = {ST_INDEX, ST_TYPE, ST_DESCR, ST_UNITS, ST_SIZE, ST_USED, ST_FAILURES};
+		for (int c=0; c<storageKinds.length; c++) {
+			for (int r=1; r<=storageRows; r++) {
+				entries.add(new Object[] {new OID(hrStorageEntry + "." + (c + 1) + "." + r), storageKinds[c], r});
+			}
+		}
+		for (int r=1; r<=cpus; r++) {
+			entries.add(new Object[] {new OID(hrProcessorLoad + "." + (196607 + r)), CPU_LOAD, r});
+		}
+		// pids with gaps like a real process table
+		Random random = new Random(processes);
+		int[] pids = new int[processes];
+		for (int p=0, pid=1; p<processes; p++) {
+			pid += 1 + random.nextInt(8);
+			pids[p] = pid;
+		}
+		for (int pid : pids) {
+			entries.add(new Object[] {new OID(hrSWRunEntry + ".1." + pid), RUN_INDEX, pid});
+			entries.add(new Object[] {new OID(hrSWRunEntry + ".2." + pid), RUN_NAME, pid});
+			entries.add(new Object[] {new OID(hrSWRunPerfEntry + ".1." + pid), PERF_CPU, pid});
+			entries.add(new Object[] {new OID(hrSWRunPerfEntry + ".2." + pid), PERF_MEM, pid});
+		}
+		entries.sort((a, b) -> ((OID) a[0]).compareTo((OID) b[0]));
+		oids = new OID[entries.size()];
+		kinds = new int[entries.size()];
+		rows = new int[entries.size()];
+		for (int i=0; i<oids.length; i++) {
+			oids[i] = (OID) entries.get(i)[0];
+			kinds[i] = (Integer) entries.get(i)[1];
+			rows[i] = (Integer) entries.get(i)[2];
+		}
+	}
+}
@@ -1,41 +1,103 @@
-import static org.quartz.CronScheduleBuilder.cronSchedule;
-import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
-import static org.quartz.JobBuilder.newJob;
-import static org.quartz.TriggerBuilder.newTrigger;
-
-import org.quartz.JobDetail;
-import org.quartz.Scheduler;
-import org.quartz.SchedulerFactory;
-import org.quartz.Trigger;
-import org.quartz.impl.StdSchedulerFactory;
-
-public class AppMain {
-
-	public static void main(String[] args) {
-		
-		SchedulerFactory schedulerFactory = new StdSchedulerFactory();
-
-		try {
-			Scheduler scheduler = schedulerFactory.getScheduler();
-
-			JobDetail job = newJob(SnmpPoller.class)
-					.withIdentity("jobName", Scheduler.DEFAULT_GROUP)
-					.build();
-
-			Trigger trigger = newTrigger()
-					.withIdentity("trggerName", Scheduler.DEFAULT_GROUP)
-					// .withSchedule(cronSchedule("5 * * * * ?"))
-					// .build();
-					.startNow()
-					.withSchedule(simpleSchedule().withIntervalInSeconds(30).repeatForever())
-					.build();
-
-			scheduler.scheduleJob(job, trigger);
-			scheduler.start();
-		} catch(Exception e) {
-			e.printStackTrace();
-		} 
-	}
-
-
-}
+import static org.quartz.CronScheduleBuilder.cronSchedule;
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+import java.util.Date;
+
+import org.quartz.JobDetail;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.SchedulerFactory;
+import org.quartz.Trigger;
+import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.listeners.SchedulerListenerSupport;
+
+public class AppMain {
+
+	/**
+	 * @param args optional thread mode : platform (default) | virtual
+	 */
+	public static void main(String[] args) {
+		if (args.length > 0) {
+			System.setProperty("poller.thread.mode", args[0]);
+		}
+
+		if ("staggered".equalsIgnoreCase(PollerConfig.getInstance().getString("poller.schedule", "burst"))) {
+			startStaggered();
+			return;
+		}
+		
+		SchedulerFactory schedulerFactory = new StdSchedulerFactory();
+
+		try {
+			final Scheduler scheduler = schedulerFactory.getScheduler();
+
+			JobDetail job = newJob(SnmpPoller.class)
+					.withIdentity("jobName", Scheduler.DEFAULT_GROUP)
+					.build();
+
+			// in cluster mode every node runs its cycles on the same interval boundaries of the epoch,
+			// so a device that moves is handed over between two cycles (ClusterNode)
+			int intervalSeconds = PollerConfig.getInstance().getInt("poller.interval.seconds", 10);
+			long start = System.currentTimeMillis();
+			if (PollerConfig.getInstance().getBoolean("cluster.enabled", false)) {
+				start += intervalSeconds * 1000L - Math.floorMod(start, intervalSeconds * 1000L);
+			}
+
+			Trigger trigger = newTrigger()
+					.withIdentity("trggerName", Scheduler.DEFAULT_GROUP)
+					// .withSchedule(cronSchedule("5 * * * * ?"))
+					// .build();
+					.startAt(new Date(start))
+					.withSchedule(simpleSchedule().withIntervalInSeconds(intervalSeconds).repeatForever())
+					.build();
+
+			// release the shared snmp session once the scheduler is down
+			scheduler.getListenerManager().addSchedulerListener(new SchedulerListenerSupport() {
+				@Override
+				public void schedulerShutdown() {
+					SnmpPoller.shutdown();
+				}
+			});
+
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					ClusterNode.leave();
+					scheduler.shutdown(true);
+				} catch (SchedulerException e) {
+					e.printStackTrace();
+				}
+			}));
+
+			scheduler.scheduleJob(job, trigger);
+			scheduler.start();
+		} catch(Exception e) {
+			e.printStackTrace();
+		} 
+	}
+
+	/**
+	 * @description per-device phase offsets on a timing wheel instead of one burst per interval
+	 */
+	static void startStaggered() {
+		final StaggeredScheduler scheduler = StaggeredScheduler.fromConfig();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			ClusterNode.leave();
+			scheduler.stop();
+			SnmpPoller.shutdown();
+		}));
+
+		scheduler.start();
+
+		// the wheel thread is a daemon, keep the jvm alive until shutdown
+		try {
+			Thread.currentThread().join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+}
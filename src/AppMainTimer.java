@@ -1,23 +1,50 @@
-import java.util.Date;
-import java.util.Timer;
-import java.util.TimerTask;
-
-public class AppMainTimer {
-
-	public static void main(String[] args) {
-		new AppMainTimer().executeTimer();
-	}
-
-	private void executeTimer() {
-		ScheduledJob job = new ScheduledJob();
-		Timer jobScheduler = new Timer();
-		jobScheduler.scheduleAtFixedRate(job, 1000, 30*1000);
-	}
-	class ScheduledJob extends TimerTask {
-
-		public void run() {
-			// System.out.println(new Date());
-			new SnmpPoller().executeCall();
-		}
-	}
-}
+import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+
+public class AppMainTimer {
+
+	/**
+	 * @param args optional thread mode : platform (default) | virtual
+	 */
+	public static void main(String[] args) {
+		if (args.length > 0) {
+			System.setProperty("poller.thread.mode", args[0]);
+		}
+
+		if ("staggered".equalsIgnoreCase(PollerConfig.getInstance().getString("poller.schedule", "burst"))) {
+			AppMain.startStaggered();
+			return;
+		}
+		new AppMainTimer().executeTimer();
+	}
+
+	private void executeTimer() {
+		ScheduledJob job = new ScheduledJob();
+		final Timer jobScheduler = new Timer();
+		final long intervalMills = PollerConfig.getInstance().getLong("poller.interval.seconds", 10)*1000;
+
+		// in cluster mode every node runs its cycles on the same interval boundaries of the epoch,
+		// so a device that moves is handed over between two cycles (ClusterNode)
+		long start = System.currentTimeMillis() + 1000;
+		if (ClusterNode.getInstance() != null) {
+			start = System.currentTimeMillis();
+			start += intervalMills - Math.floorMod(start, intervalMills);
+		}
+		jobScheduler.scheduleAtFixedRate(job, new Date(start), intervalMills);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			ClusterNode.leave();
+			jobScheduler.cancel();
+			SnmpPoller.shutdown();
+		}));
+	}
+	class ScheduledJob extends TimerTask {
+
+		public void run() {
+			// System.out.println(new Date());
+			// the planned time, not the (possibly late) run time, decides which node owns a device at this cycle
+			new SnmpPoller().executeCall(scheduledExecutionTime());
+		}
+	}
+}
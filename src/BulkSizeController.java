@@ -0,0 +1,88 @@
+/**
+ * @description Learns the GETBULK max-repetitions of one device, kept in DeviceState across cycles.
+ *
+ * 	- tooBig         : halve, and never go above 3/4 of the size that failed (ceiling)
+ * 	- timeout        : halve (large responses get fragmented and dropped first)
+ * 	- truncated      : the agent answered fewer rows than asked although the walk went on,
+ * 	                   so asking for more is useless -> ceiling = rows it really returns
+ * 	- slow responses : average round trip over bulk.rtt.target.millis -> shrink by a quarter
+ * 	- full responses : walk needed several round trips of full responses -> grow by half up to the ceiling
+ *
+ * 	After bulk.ceiling.probe.walks clean walks the ceiling is raised a little, so an agent that got
+ * 	a bigger buffer or a quieter network is probed again.
+ */
+public class BulkSizeController {
+
+	public static final int WALK_OK = 0;
+	public static final int WALK_TIMEOUT = 1;
+	public static final int WALK_TOO_BIG = 2;
+
+	private final static int minRepetitions = PollerConfig.getInstance().getInt("bulk.maxrep.min", 10);
+	private final static int maxRepetitions = PollerConfig.getInstance().getInt("bulk.maxrep.max", 500);
+	private final static int initialRepetitions = PollerConfig.getInstance().getInt("bulk.maxrep.initial", 100);
+	private final static long rttTargetMills = PollerConfig.getInstance().getLong("bulk.rtt.target.millis", 1000);
+	private final static int ceilingProbeWalks = PollerConfig.getInstance().getInt("bulk.ceiling.probe.walks", 20);
+
+	private int repetitions = clamp(initialRepetitions, maxRepetitions);
+	private int ceiling = maxRepetitions;
+	private int cleanWalks = 0;
+
+	/**
+	 * @return {int} max-repetitions for the next walk
+	 */
+	public synchronized int current() {
+		return repetitions;
+	}
+
+	/**
+	 * @description feed the outcome of one walk
+	 * @param usedRepetitions max-repetitions the walk was sent with
+	 * @param outcome WALK_OK, WALK_TIMEOUT or WALK_TOO_BIG
+	 * @param responses number of response PDUs
+	 * @param fullResponses responses that carried usedRepetitions varbinds
+	 * @param truncatedRows smallest short response that was not the last one, 0 if none
+	 * @param sumRttMills sum of the round trips of all responses
+	 */
+	public synchronized void onWalk(int usedRepetitions, int outcome, int responses, int fullResponses,
+			int truncatedRows, long sumRttMills) {
+
+		if (outcome == WALK_TOO_BIG) {
+			ceiling = clamp(usedRepetitions * 3 / 4, ceiling);
+			repetitions = clamp(Math.min(repetitions, usedRepetitions / 2), ceiling);
+			cleanWalks = 0;
+			return;
+		}
+		if (outcome == WALK_TIMEOUT) {
+			repetitions = clamp(Math.min(repetitions, usedRepetitions / 2), ceiling);
+			cleanWalks = 0;
+			return;
+		}
+		if (responses == 0) return;
+
+		if (truncatedRows > 0) {
+			ceiling = clamp(truncatedRows, maxRepetitions);
+			repetitions = clamp(repetitions, ceiling);
+		}
+
+		if (sumRttMills / responses > rttTargetMills) {
+			repetitions = clamp(Math.min(repetitions, usedRepetitions * 3 / 4), ceiling);
+		} else if (fullResponses > 1 && usedRepetitions == repetitions) {
+			// concurrent walks of the same device report the same size, grow only once per size
+			repetitions = clamp(repetitions + repetitions / 2, ceiling);
+		}
+
+		if (++cleanWalks >= ceilingProbeWalks && ceiling < maxRepetitions) {
+			ceiling = clamp(ceiling + Math.max(1, ceiling / 4), maxRepetitions);
+			cleanWalks = 0;
+		}
+	}
+
+	private static int clamp(int value, int upper) {
+		return Math.max(minRepetitions, Math.min(value, Math.max(minRepetitions, upper)));
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "maxRepetitions:" + repetitions + ", ceiling:" + ceiling;
+	}
+}
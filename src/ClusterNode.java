@@ -0,0 +1,491 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @description Cluster mode (cluster.enabled) : every poller node polls only the devices it owns on a consistent hash ring
+ * 	of the live nodes (ConsistentHashRing, cluster.vnodes points per node).
+ *
+ * 	Membership runs over plain TCP. Every node listens on cluster.bind and sends a heartbeat every cluster.heartbeat.millis
+ * 	to the seeds (cluster.seeds) and to every member it learned of. The answer carries the members the peer knows,
+ * 	so a new node only needs one reachable seed. A member is live while a heartbeat went through either way within
+ * 	cluster.failure.millis. A node that stops hands its devices over (leave()) : its goodbye names a time
+ * 	cluster.heartbeat.millis ahead, it polls its devices until then and the other nodes from then on.
+ *
+ * 	Ownership moves with the view of live nodes, without double polls or gaps :
+ * 	- every heartbeat carries the version of the sender's view and the time it takes over the devices it gained
+ * 	  with that view (its view change + cluster.handoff.millis)
+ * 	- a device that moved to this node is polled from that takeover time on, at once if its previous owner left the view
+ * 	- a device that moved away is still polled until the new owner's announced takeover time; until the new owner
+ * 	  announced the same view, until this node's own takeover time
+ * 	- a node that starts owns nothing for cluster.handoff.millis after its first heartbeat round
+ * 	- ownership is decided on the planned fire time of a device, which is on the same epoch-aligned grid on every node
+ * 	  (StaggeredScheduler phases, burst cycles started on an interval boundary), so on both nodes the takeover is
+ * 	  rounded up to the device's next phase boundary : the old owner's last poll and the new owner's first poll are
+ * 	  one interval apart
+ * 	So the old owner stops where the new owner starts; the takeover times are compared on the clocks of both nodes,
+ * 	which are expected to be synchronized (NTP). A crashed node's devices are not polled until cluster.failure.millis
+ * 	found it dead. While the network is split both sides own the devices of the other side (polled twice rather than not at all).
+ *
+ * 	protocol, one line each : HELLO <nodeid> <host:port> <view version> <takeover>
+ * 	                          ->  MEMBERS <nodeid> <host:port> <view version> <takeover>[;<nodeid> <host:port>...]
+ * 	                          BYE <nodeid> [<hand over time>]
+ */
+public class ClusterNode {
+
+	private static volatile ClusterNode node = null;
+	private static volatile boolean disabled = false;
+
+	private final String nodeId;
+	private final String bindAddress;
+	private final List<String> seeds = new ArrayList<>();
+	private final long heartbeatMills;
+	private final long failureMills;
+	private final long handoffMills;
+	private final int vnodes;
+
+	/**
+	 * nodeid -> address of every member heard of, and when a heartbeat last went through
+	 * */
+	private final Map<String,String> addresses = new ConcurrentHashMap<>();
+	private final Map<String,Long> lastSeen = new ConcurrentHashMap<>();
+
+	/**
+	 * nodeid -> {view version, takeover time} the member announced last
+	 * */
+	private final Map<String,long[]> announced = new ConcurrentHashMap<>();
+
+	/**
+	 * nodeid -> time from which the devices of a member that said goodbye are polled by the others
+	 * */
+	private final Map<String,Long> handedOver = new ConcurrentHashMap<>();
+
+	/**
+	 * this node polls nothing from this time on (leave())
+	 * */
+	private volatile long leavingAt = Long.MAX_VALUE;
+
+	/**
+	 * outgoing heartbeat connections by address, used under their own lock (heartbeat thread, stop)
+	 * */
+	private final Map<String,Connection> connections = new HashMap<>();
+
+	private volatile View view;
+	private volatile boolean running = true;
+	private ServerSocket server;
+	private Thread heartbeat;
+
+	/**
+	 * @description live nodes, their ring, the ring before the last change and when this node takes over its gained devices
+	 */
+	private static final class View {
+		final ConsistentHashRing ring;
+		final ConsistentHashRing previous;
+		final long takeover;
+
+		View(ConsistentHashRing ring, ConsistentHashRing previous, long takeover) {
+			this.ring = ring;
+			this.previous = previous;
+			this.takeover = takeover;
+		}
+	}
+
+	private static final class Connection {
+		final Socket socket;
+		final BufferedReader in;
+		final PrintWriter out;
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// closing
+			}
+		}
+	}
+
+	/**
+	 * @return {ClusterNode} the node of this jvm, started and joined on the first call, null if cluster mode is off
+	 */
+	public static ClusterNode getInstance() {
+		ClusterNode n = node;
+		if (n != null || disabled) return n;
+		synchronized (ClusterNode.class) {
+			if (node != null || disabled) return node;
+			PollerConfig config = PollerConfig.getInstance();
+			if (!config.getBoolean("cluster.enabled", false)) {
+				disabled = true;
+				return null;
+			}
+			String bind = config.getString("cluster.bind", "127.0.0.1:7601");
+			try {
+				n = new ClusterNode(config.getString("cluster.node.id", bind), bind, config.getString("cluster.seeds", bind),
+						config.getLong("cluster.heartbeat.millis", 1000), config.getLong("cluster.failure.millis", 5000),
+						config.getLong("cluster.handoff.millis", 3000), config.getInt("cluster.vnodes", 128));
+				n.start();
+			} catch (IOException e) {
+				// polling everything on several nodes is worse than stopping : fail the caller
+				throw new IllegalStateException("cluster node not started on " + bind + " : " + e, e);
+			}
+			node = n;
+			return n;
+		}
+	}
+
+	/**
+	 * @param deviceId
+	 * @return {boolean} true if this node polls the device (always true without cluster mode)
+	 */
+	public static boolean owns(String deviceId) {
+		return owns(deviceId, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param deviceId
+	 * @param plannedMills planned fire time of the poll, on the epoch-aligned grid of the device
+	 * @return {boolean} true if this node polls the device at that fire (always true without cluster mode)
+	 */
+	public static boolean owns(String deviceId, long plannedMills) {
+		ClusterNode n = getInstance();
+		return n == null || n.isOwner(deviceId, plannedMills);
+	}
+
+	/**
+	 * @description hand the devices of this node over before its scheduler stops (no-op without cluster mode) :
+	 * 	the other nodes poll them from cluster.heartbeat.millis on, this node until then. Returns once that time has passed.
+	 */
+	public static void leave() {
+		ClusterNode n = node;
+		if (n != null) n.handOver();
+	}
+
+	/**
+	 * @description say goodbye to the other nodes and stop
+	 */
+	public static synchronized void shutdown() {
+		if (node != null) {
+			node.stop();
+			node = null;
+		}
+		disabled = false;
+	}
+
+	public ClusterNode(String nodeId, String bindAddress, String seeds, long heartbeatMills, long failureMills, long handoffMills, int vnodes) {
+		if (nodeId.contains(" ") || nodeId.contains(";")) {
+			throw new IllegalArgumentException("cluster.node.id must not contain blanks or ';' : " + nodeId);
+		}
+		this.nodeId = nodeId;
+		this.bindAddress = bindAddress;
+		for (String seed : seeds.split(",")) {
+			if (!seed.trim().isEmpty()) this.seeds.add(seed.trim());
+		}
+		this.heartbeatMills = heartbeatMills;
+		this.failureMills = failureMills;
+		this.handoffMills = handoffMills;
+		this.vnodes = Math.max(1, vnodes);
+	}
+
+	/**
+	 * @description listen, run one heartbeat round to learn the cluster, then keep heartbeating in the background
+	 */
+	public void start() throws IOException {
+		server = new ServerSocket();
+		server.setReuseAddress(true);
+		server.bind(parse(bindAddress));
+		Thread acceptor = new Thread(this::accept, "cluster-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+
+		addresses.put(nodeId, bindAddress);
+		// nothing is owned until the handoff after the first round has passed
+		heartbeatRound();
+		long now = System.currentTimeMillis();
+		view = new View(new ConsistentHashRing(live(now), vnodes), null, now + handoffMills);
+		System.out.println("cluster node " + nodeId + " started on " + bindAddress + ", view:" + view.ring.getNodes()
+				+ ", polling starts in " + handoffMills + "ms");
+
+		heartbeat = new Thread(() -> {
+			while (running) {
+				try {
+					Thread.sleep(heartbeatMills);
+				} catch (InterruptedException e) {
+					return;
+				}
+				// a node that handed its devices over stays out of the view
+				if (leavingAt == Long.MAX_VALUE) heartbeatRound();
+			}
+		}, "cluster-heartbeat");
+		heartbeat.setDaemon(true);
+		heartbeat.start();
+	}
+
+	private void handOver() {
+		long at = System.currentTimeMillis() + heartbeatMills;
+		leavingAt = at;
+		synchronized (connections) {
+			for (Connection c : connections.values()) {
+				c.out.println("BYE " + nodeId + " " + at);
+			}
+		}
+		System.out.println("cluster node " + nodeId + " hands its devices over in " + heartbeatMills + "ms");
+		// the fires planned before the hand over still run
+		try {
+			Thread.sleep(at + heartbeatMills / 2 - System.currentTimeMillis());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void stop() {
+		running = false;
+		if (heartbeat != null) heartbeat.interrupt();
+		synchronized (connections) {
+			for (Connection c : connections.values()) {
+				c.out.println("BYE " + nodeId);
+				c.close();
+			}
+			connections.clear();
+		}
+		try {
+			server.close();
+		} catch (IOException e) {
+			// closing
+		}
+		System.out.println("cluster node " + nodeId + " stopped");
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * @return {Set<String>} node ids of the current view
+	 */
+	public Set<String> getView() {
+		return view.ring.getNodes();
+	}
+
+	/**
+	 * @param deviceId
+	 * @param now planned fire time, compared with the takeover times
+	 * @return {boolean} true if this node polls the device now : it owns it in the current view and took it over,
+	 * 	or owned it in the previous view and the new owner has not taken it over yet
+	 */
+	public boolean isOwner(String deviceId, long now) {
+		if (now >= leavingAt) return false;
+		View v = view;
+		String owner = v.ring.owner(deviceId);
+		String before = v.previous == null ? null : v.previous.owner(deviceId);
+		if (nodeId.equals(owner)) {
+			if (nodeId.equals(before)) return true;
+			if (before != null && !v.ring.getNodes().contains(before)) {
+				// previous owner gone : at once if it failed, from its hand over time if it left
+				Long at = handedOver.get(before);
+				return at == null || now >= at;
+			}
+			return now >= v.takeover;
+		}
+		if (!nodeId.equals(before)) return false;
+		long[] a = announced.get(owner);
+		if (a != null && a[0] == v.ring.getVersion()) return now < a[1];
+		return now < v.takeover;
+	}
+
+	private void heartbeatRound() {
+		Set<String> targets = new TreeSet<>(seeds);
+		targets.addAll(addresses.values());
+		targets.remove(bindAddress);
+		for (String address : targets) {
+			if (!running) return;
+			heartbeat(address);
+		}
+		updateView(System.currentTimeMillis());
+	}
+
+	/**
+	 * @description one HELLO / MEMBERS exchange with a peer, over its kept connection
+	 */
+	private void heartbeat(String address) {
+		synchronized (connections) {
+			Connection c = connections.get(address);
+			try {
+				if (c == null) {
+					Socket socket = new Socket();
+					socket.connect(parse(address), (int) heartbeatMills);
+					socket.setSoTimeout((int) heartbeatMills);
+					socket.setTcpNoDelay(true);
+					c = new Connection(socket);
+					connections.put(address, c);
+				}
+				View v = view;
+				c.out.println("HELLO " + nodeId + " " + bindAddress + announcement(v));
+				String reply = c.in.readLine();
+				if (reply == null || !reply.startsWith("MEMBERS ")) throw new IOException("no answer");
+				String[] members = reply.substring(8).split(";");
+				for (int i=0; i<members.length; i++) {
+					String[] m = members[i].trim().split(" ");
+					if (m[0].equals(nodeId)) continue;
+					if (i == 0 && m.length == 4) {
+						// the peer itself answered
+						seen(m[0], m[1], m[2], m[3]);
+					} else if (i > 0 && m.length == 2 && !addresses.containsKey(m[0])) {
+						// heard of only : heartbeated from the next round on, live once it answers itself
+						addresses.put(m[0], m[1]);
+					}
+				}
+			} catch (IOException e) {
+				if (c != null) c.close();
+				connections.remove(address);
+			}
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				final Socket socket = server.accept();
+				Thread t = new Thread(() -> serve(socket), "cluster-peer");
+				t.setDaemon(true);
+				t.start();
+			} catch (IOException e) {
+				if (running) System.err.println("cluster accept exception : " + e);
+			}
+		}
+	}
+
+	/**
+	 * @description answer the heartbeats of one peer connection
+	 */
+	private void serve(Socket socket) {
+		Connection c = null;
+		try {
+			socket.setTcpNoDelay(true);
+			c = new Connection(socket);
+			String line;
+			while (running && (line = c.in.readLine()) != null) {
+				String[] f = line.split(" ");
+				if (f.length == 5 && "HELLO".equals(f[0])) {
+					if (leavingAt != Long.MAX_VALUE) break;
+					seen(f[1], f[2], f[3], f[4]);
+					c.out.println(members());
+				} else if ((f.length == 2 || f.length == 3) && "BYE".equals(f[0])) {
+					left(f[1], f.length == 3 ? f[2] : null);
+				}
+			}
+		} catch (SocketException e) {
+			// peer gone
+		} catch (IOException e) {
+			System.err.println("cluster peer exception : " + e);
+		} finally {
+			if (c != null) {
+				c.close();
+			} else {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// closing
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return {String} MEMBERS line : this node first, then the live members
+	 */
+	private String members() {
+		StringBuilder sb = new StringBuilder("MEMBERS ").append(nodeId).append(' ').append(bindAddress).append(announcement(view));
+		for (String id : live(System.currentTimeMillis())) {
+			String address = addresses.get(id);
+			if (!id.equals(nodeId) && address != null) sb.append(';').append(id).append(' ').append(address);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return {String} " <view version> <takeover>" of this node, "0 0" during the first round of start()
+	 */
+	private static String announcement(View v) {
+		return v == null ? " 0 0" : " " + v.ring.getVersion() + " " + v.takeover;
+	}
+
+	private void seen(String id, String address, String version, String takeover) {
+		try {
+			announced.put(id, new long[] { Long.parseLong(version), Long.parseLong(takeover) });
+		} catch (NumberFormatException e) {
+			announced.remove(id);
+		}
+		addresses.put(id, address);
+		handedOver.remove(id);
+		boolean joined = lastSeen.put(id, System.currentTimeMillis()) == null;
+		if (joined) updateView(System.currentTimeMillis());
+	}
+
+	private void left(String id, String handOver) {
+		if (handOver != null) {
+			try {
+				handedOver.put(id, Long.parseLong(handOver));
+			} catch (NumberFormatException e) {
+				// at once
+			}
+		}
+		lastSeen.remove(id);
+		announced.remove(id);
+		System.out.println("cluster node " + id + " left");
+		updateView(System.currentTimeMillis());
+	}
+
+	private Set<String> live(long now) {
+		Set<String> live = new TreeSet<>();
+		live.add(nodeId);
+		for (Map.Entry<String,Long> e : lastSeen.entrySet()) {
+			if (e.getValue() >= now - failureMills) live.add(e.getKey());
+		}
+		return live;
+	}
+
+	/**
+	 * @description a new view when the live nodes changed; a change before the last takeover keeps the ring
+	 * 	from before that takeover as previous, so the devices still polled by their old owners stay theirs
+	 */
+	private synchronized void updateView(long now) {
+		View v = view;
+		if (v == null) return; // first round of start()
+		Set<String> live = live(now);
+		for (String id : new ArrayList<>(lastSeen.keySet())) {
+			if (!live.contains(id)) {
+				lastSeen.remove(id);
+				announced.remove(id);
+			}
+		}
+		if (live.equals(v.ring.getNodes())) return;
+		ConsistentHashRing previous = now < v.takeover ? v.previous : v.ring;
+		view = new View(new ConsistentHashRing(live, vnodes), previous, now + handoffMills);
+		System.out.println("cluster view changed : " + live + " (was " + v.ring.getNodes() + ")");
+	}
+
+	private static InetSocketAddress parse(String address) {
+		int colon = address.lastIndexOf(':');
+		if (colon < 0) throw new IllegalArgumentException("host:port expected : " + address);
+		return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+	}
+}
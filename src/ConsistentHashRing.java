@@ -0,0 +1,67 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * @description Consistent hash ring of node ids, immutable.
+ * 	Every node is placed vnodes times on a 64 bit ring, a key belongs to the first node clockwise from its hash.
+ * 	A node joining or leaving moves only the keys next to its own points, about 1/n of all keys.
+ */
+public final class ConsistentHashRing {
+
+	private final TreeMap<Long,String> points = new TreeMap<>();
+	private final Set<String> nodes;
+	private final long version;
+
+	public ConsistentHashRing(Collection<String> nodes, int vnodes) {
+		this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+		this.version = hash(String.join(",", this.nodes));
+		for (String node : this.nodes) {
+			for (int i=0; i<vnodes; i++) {
+				points.put(hash(node + "#" + i), node);
+			}
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return {String} owner node of the key, null if the ring is empty
+	 */
+	public String owner(String key) {
+		if (points.isEmpty()) return null;
+		Map.Entry<Long,String> e = points.ceilingEntry(hash(key));
+		return e != null ? e.getValue() : points.firstEntry().getValue();
+	}
+
+	public Set<String> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return {long} hash of the node ids, equal on every node that sees the same nodes
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @description FNV-1a over the utf-8 bytes, then the murmur3 64 bit finalizer so similar keys spread over the ring
+	 */
+	static long hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
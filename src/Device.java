@@ -0,0 +1,119 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @description One device of the inventory, immutable.
+ * 	inventory line : deviceid,ip[/port],community (v3 : user),v2c|v3,password
+ */
+public final class Device {
+
+	private final String deviceId;
+	private final String ip;
+	private final String community;
+	private final String version;
+	private final String password;
+
+	/**
+	 * the worker view of the device, built on the first poll (a large inventory holds many devices that are never asked)
+	 * */
+	private volatile Map<String,Object> map = null;
+
+	public Device(String deviceId, String ip, String community, String version, String password) {
+		this.deviceId = deviceId;
+		this.ip = ip;
+		this.community = community;
+		this.version = version;
+		this.password = password;
+	}
+
+	/**
+	 * @param line one inventory line, not a comment
+	 * @return {Device}
+	 * @throws IllegalArgumentException if a field is missing or the version is not v2c / v3
+	 */
+	public static Device parse(String line) {
+		// the password is the last field and may contain commas
+		String[] arr = line.split(",", 5);
+		if (arr.length < 5) {
+			throw new IllegalArgumentException("5 fields expected, found " + arr.length);
+		}
+		String deviceId = arr[0].trim();
+		String ip = arr[1].trim();
+		String version = arr[3].trim();
+		if (deviceId.isEmpty() || ip.isEmpty()) {
+			throw new IllegalArgumentException("deviceid and ip are required");
+		}
+		if (!"v2c".equals(version) && !"v3".equals(version)) {
+			throw new IllegalArgumentException("version must be v2c or v3 : " + version);
+		}
+		return new Device(deviceId, ip, arr[2].trim(), version, arr[4]);
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	public String getIp() {
+		return ip;
+	}
+
+	public String getCommunity() {
+		return community;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	/**
+	 * @return {String} agent address (default port 161), version and credentials : devices with the same key poll the same agent
+	 */
+	public String getAgentKey() {
+		return SnmpWorker.udpAddress(ip) + "," + version + "," + community + "," + password;
+	}
+
+	/**
+	 * @return {Map} deviceid, ip, community, version, password as SnmpWorker reads them, unmodifiable
+	 */
+	public Map<String,Object> asMap() {
+		Map<String,Object> m = map;
+		if (m == null) {
+			Map<String,Object> hm = new HashMap<>(8);
+			hm.put("deviceid", deviceId);
+			hm.put("ip", ip);
+			hm.put("community", community);
+			hm.put("version", version);
+			hm.put("password", password);
+			map = m = Collections.unmodifiableMap(hm);
+		}
+		return m;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof Device)) return false;
+		Device d = (Device) o;
+		return deviceId.equals(d.deviceId) && ip.equals(d.ip) && community.equals(d.community)
+				&& version.equals(d.version) && password.equals(d.password);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = deviceId.hashCode();
+		h = h * 31 + ip.hashCode();
+		h = h * 31 + community.hashCode();
+		h = h * 31 + version.hashCode();
+		return h * 31 + password.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return deviceId + "(" + ip + ", " + version + ")";
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * @description Reachability of one device, kept in DeviceState across cycles.
+ *
+ * 	- UP      : full polls. A poll without a single response -> SUSPECT
+ * 	- SUSPECT : every poll starts with a liveness probe (one GET of sysUpTime, health.probe.timeout.millis, no retry).
+ * 	            An answer -> full poll, a poll with responses -> UP.
+ * 	            health.down.failures misses in a row (polls and probes) -> DOWN
+ * 	- DOWN    : no polls. A probe is sent once the backoff has passed, the backoff starts at
+ * 	            health.backoff.initial.seconds and doubles on every missed probe up to health.backoff.max.seconds.
+ * 	            An answer -> full poll on the same tick, a poll with responses -> UP
+ *
+ * 	So an unreachable device costs one short GET per backoff instead of four walks with retries on every tick.
+ */
+public class DeviceHealth {
+
+	public static final int UP = 0;
+	public static final int SUSPECT = 1;
+	public static final int DOWN = 2;
+
+	private final static boolean enabled = PollerConfig.getInstance().getBoolean("health.enabled", true);
+	private final static int downFailures = Math.max(1, PollerConfig.getInstance().getInt("health.down.failures", 3));
+	private final static long initialBackoffMills = PollerConfig.getInstance().getLong("health.backoff.initial.seconds", 30) * 1000;
+	private final static long maxBackoffMills = PollerConfig.getInstance().getLong("health.backoff.max.seconds", 900) * 1000;
+	private final static long probeTimeoutMills = PollerConfig.getInstance().getLong("health.probe.timeout.millis", 1000);
+
+	private int state = UP;
+	private int failures = 0;
+	private long backoffMills = 0;
+	private long nextProbeMills = 0;
+	private long probes = 0;
+	private long skipped = 0;
+	private long downSinceMills = 0;
+
+	public static long getProbeTimeoutMills() {
+		return probeTimeoutMills;
+	}
+
+	/**
+	 * @description what this tick does with the device
+	 * @param now
+	 * @return {int} UP = full poll, SUSPECT = probe first, DOWN = skip (backoff not passed)
+	 */
+	public synchronized int action(long now) {
+		if (!enabled || state == UP) return UP;
+		if (state == DOWN && now < nextProbeMills) {
+			skipped++;
+			return DOWN;
+		}
+		probes++;
+		return SUSPECT;
+	}
+
+	/**
+	 * @description the liveness probe was answered, the device is polled in full right away
+	 */
+	public synchronized void probeAnswered() {
+		failures = 0;
+	}
+
+	/**
+	 * @description the liveness probe got no answer
+	 * @param now
+	 */
+	public synchronized void probeMissed(long now) {
+		missed(now);
+	}
+
+	/**
+	 * @description outcome of a full poll
+	 * @param answered true if any request of the poll got a response
+	 * @param now
+	 */
+	public synchronized void polled(boolean answered, long now) {
+		if (!enabled) return;
+		if (answered) {
+			state = UP;
+			failures = 0;
+			backoffMills = 0;
+			downSinceMills = 0;
+		} else {
+			missed(now);
+		}
+	}
+
+	private void missed(long now) {
+		failures++;
+		if (state == DOWN) {
+			backoffMills = Math.min(maxBackoffMills, backoffMills * 2);
+		} else if (failures >= downFailures) {
+			state = DOWN;
+			backoffMills = Math.min(maxBackoffMills, initialBackoffMills);
+			downSinceMills = now;
+		} else {
+			state = SUSPECT;
+		}
+		if (state == DOWN) {
+			nextProbeMills = now + backoffMills;
+		}
+	}
+
+	/**
+	 * @description back to up, e.g. the address or credentials of the device changed
+	 */
+	public synchronized void reset() {
+		state = UP;
+		failures = 0;
+		backoffMills = 0;
+		nextProbeMills = 0;
+		downSinceMills = 0;
+	}
+
+	public synchronized int getState() {
+		return state;
+	}
+
+	public synchronized long getProbes() {
+		return probes;
+	}
+
+	public synchronized long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return {long} when the device went down, 0 while it is not down
+	 */
+	public synchronized long getDownSinceMills() {
+		return state == DOWN ? downSinceMills : 0;
+	}
+
+	public synchronized long getBackoffMills() {
+		return state == DOWN ? backoffMills : 0;
+	}
+
+	public static String name(int state) {
+		return state == UP ? "up" : state == SUSPECT ? "suspect" : "down";
+	}
+
+	@Override
+	public synchronized String toString() {
+		return name(state) + (state == DOWN ? " backoff:" + backoffMills / 1000 + "s" : "") + " failures:" + failures
+				+ " probes:" + probes + " skipped:" + skipped;
+	}
+}
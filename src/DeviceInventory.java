@@ -0,0 +1,394 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description Device inventory (poller.servers.file), loaded once into immutable Device records and watched for changes.
+ * 	Polls read the current snapshot and never wait for a reload : the file is parsed on the watcher thread and
+ * 	the new snapshot replaces the old one in one step. Listeners get only the difference (added, removed, changed devices),
+ * 	so the state of unchanged devices stays as it is.
+ *
+ * 	- a bad line is reported with its line number and left out, the other lines are loaded
+ * 	- a missing or unreadable file keeps the last snapshot
+ * 	- a deviceid listed twice : the last line wins
+ * 	- a reload waits until the file was quiet for inventory.reload.delay.millis (editors write in several steps)
+ * 	- besides the file events the modification time is checked every inventory.check.seconds (file systems without events)
+ *
+ * 	With poller.coalesce devices of the same agent (Device.getAgentKey) and the same per-device settings
+ * 	(device.<deviceid>.metrics.enabled, device.<deviceid>.group.*.interval.seconds) share one poll : the first of them
+ * 	in file order is polled and its result is published for the others too.
+ */
+public class DeviceInventory {
+
+	/**
+	 * @description called on the watcher thread after a reload changed the inventory
+	 */
+	public interface Listener {
+		void changed(Diff diff);
+	}
+
+	/**
+	 * @description difference between two snapshots, changed holds the new records
+	 */
+	public static final class Diff {
+		private final List<Device> added;
+		private final List<Device> removed;
+		private final List<Device> changed;
+
+		Diff(List<Device> added, List<Device> removed, List<Device> changed) {
+			this.added = Collections.unmodifiableList(added);
+			this.removed = Collections.unmodifiableList(removed);
+			this.changed = Collections.unmodifiableList(changed);
+		}
+
+		public List<Device> getAdded() {
+			return added;
+		}
+
+		public List<Device> getRemoved() {
+			return removed;
+		}
+
+		public List<Device> getChanged() {
+			return changed;
+		}
+
+		public boolean isEmpty() {
+			return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			return "added:" + added.size() + ", removed:" + removed.size() + ", changed:" + changed.size();
+		}
+	}
+
+	private final static int maxReportedErrors = 20;
+
+	private static volatile DeviceInventory inventory = null;
+
+	private final File file;
+	private final long reloadDelayMills;
+	private final long checkMills;
+	private final boolean coalesce;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * current snapshot : devices in file order and by deviceid, both replaced together on reload
+	 * */
+	private volatile Snapshot snapshot = new Snapshot(Collections.<String,Device>emptyMap(), false);
+
+	private long lastModified = -1;
+	private long lastLength = -1;
+	private WatchService watchService = null;
+	private Thread watcher = null;
+
+	private static final class Snapshot {
+		final Map<String,Device> byId;
+		final List<Device> devices;
+
+		/**
+		 * devices that are polled (one per agent), the other devices of each of them, and the polled device of every other device
+		 * */
+		final List<Device> polled;
+		final Map<String,List<String>> sharedWith = new HashMap<>();
+		final Map<String,String> polledBy = new HashMap<>();
+
+		Snapshot(Map<String,Device> byId, boolean coalesce) {
+			this.byId = Collections.unmodifiableMap(byId);
+			this.devices = Collections.unmodifiableList(new ArrayList<>(byId.values()));
+			if (!coalesce) {
+				this.polled = devices;
+				return;
+			}
+			// per-device settings are only looked up if there are any
+			boolean perDevice = PollerConfig.getInstance().hasKeys("device.");
+			Map<String,Device> byAgent = new HashMap<>(Math.max(16, devices.size() * 4 / 3 + 16));
+			List<Device> polled = new ArrayList<>();
+			for (Device device : devices) {
+				String key = perDevice ? device.getAgentKey() + "|" + pollSettings(device.getDeviceId()) : device.getAgentKey();
+				Device first = byAgent.putIfAbsent(key, device);
+				if (first == null) {
+					polled.add(device);
+				} else {
+					sharedWith.computeIfAbsent(first.getDeviceId(), id -> new ArrayList<>()).add(device.getDeviceId());
+					polledBy.put(device.getDeviceId(), first.getDeviceId());
+				}
+			}
+			this.polled = Collections.unmodifiableList(polled);
+		}
+	}
+
+	/**
+	 * @description per-device settings that change what a poll reads, devices differing in them are not coalesced
+	 */
+	private static String pollSettings(String deviceId) {
+		StringBuilder sb = new StringBuilder(PollerConfig.getInstance().getString("device." + deviceId + ".metrics.enabled", ""));
+		for (OidGroup group : OidGroup.values()) {
+			sb.append('|').append(group.intervalMills(deviceId));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @description the inventory of poller.servers.file, loaded on the first call and watched if inventory.watch
+	 */
+	public static synchronized DeviceInventory getInstance() {
+		if (inventory == null) {
+			PollerConfig config = PollerConfig.getInstance();
+			String path = config.getString("poller.servers.file",
+					String.join(File.separator, System.getProperty("user.dir"), "config", "servers.txt"));
+			inventory = new DeviceInventory(new File(path), config.getLong("inventory.reload.delay.millis", 500),
+					config.getLong("inventory.check.seconds", 30) * 1000, config.getBoolean("poller.coalesce", true));
+			inventory.reload();
+			if (config.getBoolean("inventory.watch", true)) {
+				inventory.startWatching();
+			}
+		}
+		return inventory;
+	}
+
+	/**
+	 * @return {DeviceInventory} the loaded inventory, null if none was loaded (reporting must not load one)
+	 */
+	public static DeviceInventory getLoaded() {
+		return inventory;
+	}
+
+	public static synchronized void shutdown() {
+		if (inventory == null) return;
+		inventory.stopWatching();
+		inventory = null;
+	}
+
+	public DeviceInventory(File file, long reloadDelayMills, long checkMills, boolean coalesce) {
+		this.file = file.getAbsoluteFile();
+		this.reloadDelayMills = reloadDelayMills;
+		this.checkMills = Math.max(1000, checkMills);
+		this.coalesce = coalesce;
+	}
+
+	/**
+	 * @return {List<Device>} current devices in file order, unmodifiable
+	 */
+	public List<Device> devices() {
+		return snapshot.devices;
+	}
+
+	/**
+	 * @param deviceId
+	 * @return {Device} null if the device is not in the inventory
+	 */
+	public Device get(String deviceId) {
+		return snapshot.byId.get(deviceId);
+	}
+
+	public int size() {
+		return snapshot.devices.size();
+	}
+
+	/**
+	 * @return {List<Device>} devices to poll in file order : one per agent with poller.coalesce, else all, unmodifiable
+	 */
+	public List<Device> polledDevices() {
+		return snapshot.polled;
+	}
+
+	/**
+	 * @param deviceId
+	 * @return {boolean} false if the device's agent is polled through another device
+	 */
+	public boolean isPolled(String deviceId) {
+		return !snapshot.polledBy.containsKey(deviceId);
+	}
+
+	/**
+	 * @param deviceId
+	 * @return {String} the device whose poll the device's agent is polled through, null if it is polled itself
+	 */
+	public String polledBy(String deviceId) {
+		return snapshot.polledBy.get(deviceId);
+	}
+
+	/**
+	 * @param deviceId a polled device
+	 * @return {List<String>} the other devices that get the result of its poll, empty if none
+	 */
+	public List<String> sharedWith(String deviceId) {
+		List<String> ids = snapshot.sharedWith.get(deviceId);
+		return ids == null ? Collections.<String>emptyList() : Collections.unmodifiableList(ids);
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @description parse the file and swap in the new snapshot, listeners get the difference if there is one
+	 * @return {Diff} null if the file could not be read (the last snapshot is kept)
+	 */
+	public synchronized Diff reload() {
+		long start = System.currentTimeMillis();
+		long modified = file.lastModified();
+		long length = file.length();
+		Map<String,Device> parsed = parse();
+		if (parsed == null) return null;
+		lastModified = modified;
+		lastLength = length;
+
+		Snapshot old = snapshot;
+		List<Device> added = new ArrayList<>();
+		List<Device> changed = new ArrayList<>();
+		List<Device> removed = new ArrayList<>();
+		for (Device device : parsed.values()) {
+			Device before = old.byId.get(device.getDeviceId());
+			if (before == null) {
+				added.add(device);
+			} else if (!before.equals(device)) {
+				changed.add(device);
+			}
+		}
+		for (Device device : old.devices) {
+			if (!parsed.containsKey(device.getDeviceId())) {
+				removed.add(device);
+			}
+		}
+		Diff diff = new Diff(added, removed, changed);
+		if (diff.isEmpty()) return diff;
+
+		snapshot = new Snapshot(parsed, coalesce);
+		System.out.println("inventory loaded, devices:" + parsed.size() + ", polled:" + snapshot.polled.size() + ", " + diff + ", file:" + file
+				+ ", elapsed:" + (System.currentTimeMillis() - start) + "ms");
+		for (Listener listener : listeners) {
+			try {
+				listener.changed(diff);
+			} catch (RuntimeException e) {
+				System.err.println("inventory listener exception : " + e);
+			}
+		}
+		return diff;
+	}
+
+	/**
+	 * @return {Map} deviceid -> device in file order, null if the file is missing or could not be read
+	 */
+	private Map<String,Device> parse() {
+		if (!file.isFile()) {
+			System.err.println("inventory file not found, keep " + snapshot.devices.size() + " devices : " + file);
+			return null;
+		}
+		Map<String,Device> devices = new LinkedHashMap<>(Math.max(16, snapshot.devices.size() * 4 / 3 + 16));
+		int lineNo = 0;
+		int errors = 0;
+		try (BufferedReader in = new BufferedReader(new FileReader(file), 1 << 16)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				lineNo++;
+				if (line.startsWith("#") || line.trim().isEmpty()) continue;
+				try {
+					Device device = Device.parse(line);
+					if (devices.put(device.getDeviceId(), device) != null && ++errors <= maxReportedErrors) {
+						System.err.println("inventory line " + lineNo + " : deviceid listed again, the later line is used : " + device.getDeviceId());
+					}
+				} catch (IllegalArgumentException e) {
+					if (++errors <= maxReportedErrors) {
+						System.err.println("inventory line " + lineNo + " is left out : " + e.getMessage());
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("inventory read exception, keep " + snapshot.devices.size() + " devices : " + e);
+			return null;
+		}
+		if (errors > maxReportedErrors) {
+			System.err.println("inventory : " + errors + " lines with errors, first " + maxReportedErrors + " reported");
+		}
+		return devices;
+	}
+
+	private synchronized void startWatching() {
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			file.getParentFile().toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException e) {
+			System.err.println("inventory watch not available, checked every " + checkMills / 1000 + "s : " + e);
+			watchService = null;
+		}
+		watcher = new Thread(this::watch, "inventory-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	private synchronized void stopWatching() {
+		if (watcher != null) watcher.interrupt();
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				// closing
+			}
+		}
+	}
+
+	private void watch() {
+		Path name = file.toPath().getFileName();
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				boolean touched = watchService == null ? false : awaitEvent(name, checkMills);
+				if (!touched) {
+					// no event : fall back to the modification time
+					if (watchService == null) Thread.sleep(checkMills);
+					if (file.lastModified() == lastModified && file.length() == lastLength) continue;
+				}
+				// let the writer finish : wait until no event came for reloadDelayMills
+				while (watchService != null && awaitEvent(name, reloadDelayMills)) {
+					// still being written
+				}
+				if (watchService == null) Thread.sleep(reloadDelayMills);
+				reload();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// stopped
+		}
+	}
+
+	/**
+	 * @return {boolean} true if the inventory file was created or modified within timeoutMills
+	 */
+	private boolean awaitEvent(Path name, long timeoutMills) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMills;
+		long wait;
+		while ((wait = deadline - System.currentTimeMillis()) > 0) {
+			WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+			if (key == null) return false;
+			boolean touched = false;
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (name.equals(event.context())) touched = true;
+			}
+			key.reset();
+			if (touched) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,128 @@
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @description State kept per device across poll cycles.
+ * 	- when each OID group was last walked, so a tick only walks the groups that are due
+ * 	- the last walk result of each table oid, handed to the result processing for groups that are not due
+ * 	- the learned GETBULK max-repetitions
+ * 	- the static hrStorage metadata (index -> name, type, category)
+ * 	- the known process names for delta polling of the process table
+ * 	- the compiled metric plan (which metrics, tables and columns the device reads)
+ * 	- the last published value per metric for change-only emission
+ * 	- the poll health stats (latency histograms, counters)
+ * 	- the reachability (up / suspect / down with probe backoff)
+ */
+public class DeviceState {
+
+	private static final Map<String,DeviceState> states = new ConcurrentHashMap<>();
+
+	private final long[] intervalMills = new long[OidGroup.values().length];
+	private final long[] lastWalkMills = new long[OidGroup.values().length];
+	private final Map<String,SnmpTable> lastResults = new ConcurrentHashMap<>();
+	private final BulkSizeController bulkSize = new BulkSizeController();
+	private volatile StorageMetadata storageMetadata = null;
+	private final ProcessTable processTable = new ProcessTable();
+	private final MetricDefinitions.Plan metricPlan;
+	private final EmissionFilter emissionFilter = new EmissionFilter();
+	private final PollStats pollStats;
+	private final DeviceHealth health = new DeviceHealth();
+
+	public static DeviceState of(String deviceId) {
+		return states.computeIfAbsent(deviceId, DeviceState::new);
+	}
+
+	/**
+	 * @param deviceId
+	 * @return {DeviceState} null if the device was never polled
+	 */
+	public static DeviceState get(String deviceId) {
+		return states.get(deviceId);
+	}
+
+	/**
+	 * @description drop the state of a device that left the inventory
+	 * @param deviceId
+	 */
+	public static void remove(String deviceId) {
+		states.remove(deviceId);
+	}
+
+	/**
+	 * @return {Collection<DeviceState>} every device polled so far
+	 */
+	public static Collection<DeviceState> all() {
+		return states.values();
+	}
+
+	private DeviceState(String deviceId) {
+		for (OidGroup group : OidGroup.values()) {
+			intervalMills[group.ordinal()] = group.intervalMills(deviceId);
+		}
+		this.metricPlan = MetricDefinitions.getInstance().plan(deviceId);
+		this.pollStats = new PollStats(deviceId);
+	}
+
+	/**
+	 * @description group is due when its interval has passed, minus slack so a tick that fires a little early still counts
+	 * @param group
+	 * @param now
+	 * @param slackMills
+	 * @return {boolean}
+	 */
+	public synchronized boolean isDue(OidGroup group, long now, long slackMills) {
+		return now + slackMills >= lastWalkMills[group.ordinal()] + intervalMills[group.ordinal()];
+	}
+
+	public synchronized void walked(OidGroup group, long now) {
+		lastWalkMills[group.ordinal()] = now;
+	}
+
+	/**
+	 * @param tableOid
+	 * @return {SnmpTable} last result of the table, or null if it was never walked
+	 */
+	public SnmpTable getLastResult(String tableOid) {
+		return lastResults.get(tableOid);
+	}
+
+	public void setLastResult(String tableOid, SnmpTable result) {
+		lastResults.put(tableOid, result);
+	}
+
+	public BulkSizeController getBulkSize() {
+		return bulkSize;
+	}
+
+	/**
+	 * @return {StorageMetadata} null until the first full hrStorage walk or after it went stale
+	 */
+	public StorageMetadata getStorageMetadata() {
+		return storageMetadata;
+	}
+
+	public void setStorageMetadata(StorageMetadata storageMetadata) {
+		this.storageMetadata = storageMetadata;
+	}
+
+	public ProcessTable getProcessTable() {
+		return processTable;
+	}
+
+	public MetricDefinitions.Plan getMetricPlan() {
+		return metricPlan;
+	}
+
+	public EmissionFilter getEmissionFilter() {
+		return emissionFilter;
+	}
+
+	public PollStats getPollStats() {
+		return pollStats;
+	}
+
+	public DeviceHealth getHealth() {
+		return health;
+	}
+}
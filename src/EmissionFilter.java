@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @description Change-only emission of one device's values to the metric sink.
+ * 	A value is only published when it left the deadband around the last published value of its metric,
+ * 	or when the metric was held back emit.heartbeat.cycles polls in a row (heartbeat).
+ *
+ * 	emit.deadbands : <metric>:<deadband>,... metric is a name or a prefix ending with * (first match wins),
+ * 	deadband is absolute (0.5) or percent of the last published value (1%). Metrics without a deadband are always published.
+ */
+public class EmissionFilter {
+
+	private final static List<String> patterns = new ArrayList<>();
+	private final static List<double[]> deadbands = new ArrayList<>(); // {value, 1 if percent}
+	private final static int heartbeatCycles = Math.max(1, PollerConfig.getInstance().getInt("emit.heartbeat.cycles", 10));
+	static {
+		for (String rule : PollerConfig.getInstance().getString("emit.deadbands", "").split(",")) {
+			int colon = rule.lastIndexOf(':');
+			if (rule.trim().isEmpty()) continue;
+			try {
+				String band = rule.substring(colon + 1).trim();
+				boolean percent = band.endsWith("%");
+				double value = Double.parseDouble(percent ? band.substring(0, band.length() - 1) : band);
+				patterns.add(rule.substring(0, colon).trim());
+				deadbands.add(new double[] {value, percent ? 1 : 0});
+			} catch (RuntimeException e) {
+				System.err.println("emit.deadbands rule is left out : " + rule);
+			}
+		}
+	}
+
+	private final static AtomicLong published = new AtomicLong();
+	private final static AtomicLong suppressed = new AtomicLong();
+
+	private final Map<String,Integer> slots = new HashMap<>();
+	private double[] lastValues = new double[16];
+	private double[] bands = new double[16];
+	private boolean[] percents = new boolean[16];
+	private int[] heldCycles = new int[16];
+
+	/**
+	 * @return {boolean} true if any deadband is configured
+	 */
+	public static boolean isEnabled() {
+		return !patterns.isEmpty();
+	}
+
+	public static long getPublished() {
+		return published.get();
+	}
+
+	public static long getSuppressed() {
+		return suppressed.get();
+	}
+
+	/**
+	 * @description decide if the value of this poll is published, and remember it if so
+	 * @param metric
+	 * @param value
+	 * @return {boolean} false if the value stays inside the deadband and no heartbeat is due
+	 */
+	public synchronized boolean accept(String metric, double value) {
+		Integer slot = slots.get(metric);
+		if (slot == null) {
+			slot = newSlot(metric);
+		} else if (bands[slot] >= 0) {
+			double last = lastValues[slot];
+			double band = percents[slot] ? Math.abs(last) * bands[slot] / 100 : bands[slot];
+			if (Math.abs(value - last) <= band && ++heldCycles[slot] < heartbeatCycles) {
+				suppressed.incrementAndGet();
+				return false;
+			}
+		}
+		lastValues[slot] = value;
+		heldCycles[slot] = 0;
+		published.incrementAndGet();
+		return true;
+	}
+
+	private int newSlot(String metric) {
+		int slot = slots.size();
+		if (slot == lastValues.length) {
+			int size = slot * 2;
+			lastValues = Arrays.copyOf(lastValues, size);
+			bands = Arrays.copyOf(bands, size);
+			percents = Arrays.copyOf(percents, size);
+			heldCycles = Arrays.copyOf(heldCycles, size);
+		}
+		bands[slot] = -1;
+		for (int i=0; i<patterns.size(); i++) {
+			String pattern = patterns.get(i);
+			if (pattern.endsWith("*") ? metric.startsWith(pattern.substring(0, pattern.length() - 1)) : metric.equals(pattern)) {
+				bands[slot] = deadbands.get(i)[0];
+				percents[slot] = deadbands.get(i)[1] == 1;
+				break;
+			}
+		}
+		slots.put(metric, slot);
+		return slot;
+	}
+}
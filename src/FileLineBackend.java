@@ -0,0 +1,50 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @description MetricSink backend that appends every batch to a file in line protocol, one flush per batch.
+ */
+public class FileLineBackend implements MetricSink.Backend {
+
+	private final File file;
+	private final StringBuilder sb = new StringBuilder(64 * 1024);
+	private Writer out;
+
+	public FileLineBackend(String path) {
+		this.file = new File(path);
+	}
+
+	@Override
+	public void write(MetricSink.Batch batch) throws IOException {
+		if (out == null) {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null && !parent.exists()) {
+				parent.mkdirs();
+			}
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 64 * 1024);
+		}
+		sb.setLength(0);
+		for (int i=0; i<batch.size(); i++) {
+			batch.appendLine(i, sb);
+		}
+		out.append(sb);
+		out.flush();
+	}
+
+	@Override
+	public void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				System.err.println("metric file close exception : " + e);
+			}
+			out = null;
+		}
+	}
+}
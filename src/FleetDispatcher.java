@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description Fleet-wide dispatcher. Polls every device of a cycle at once,
+ * 	at most {@code concurrency} devices in flight, all bound by one cycle deadline.
+ * 	A cycle over N devices takes about as long as the slowest device.
+ *
+ * 	With PollThreadMode.VIRTUAL every device gets its own virtual thread and
+ * 	concurrency 0 means no limit at all.
+ */
+public class FleetDispatcher {
+
+	private final ExecutorService es;
+	private final PollThreadMode mode;
+	private final int concurrency;
+	private final long cycleDeadlineMills;
+
+	/**
+	 * admission limit for virtual threads (the platform pool is limited by its size)
+	 * */
+	private final Semaphore permits;
+
+	/**
+	 * @param mode already resolved with PollThreadMode.effective()
+	 * @param concurrency
+	 * @param cycleDeadlineMills
+	 */
+	public FleetDispatcher(PollThreadMode mode, int concurrency, long cycleDeadlineMills) {
+		this.mode = mode;
+		this.concurrency = concurrency;
+		this.cycleDeadlineMills = cycleDeadlineMills;
+		this.es = this.mode.newExecutor(concurrency);
+		this.permits = this.mode == PollThreadMode.VIRTUAL && concurrency > 0 ? new Semaphore(concurrency) : null;
+	}
+
+	/**
+	 * @description poll all servers and wait until every device is done or the deadline passes
+	 * @param servers
+	 * @param session
+	 * @param inventory the results of a device are also published for the devices it is shared with
+	 */
+	public void pollCycle(List<Device> servers, SnmpSession session, DeviceInventory inventory) {
+		final long start = System.currentTimeMillis();
+
+		List<SnmpWorker> workers = new ArrayList<>(servers.size());
+		List<Callable<Boolean>> tasks = new ArrayList<>(servers.size());
+		for (Device device : servers) {
+			SnmpWorker worker = new SnmpWorker(device.asMap(), session.getSnmp(device.getDeviceId()), inventory.sharedWith(device.getDeviceId()));
+			workers.add(worker);
+			tasks.add(permits == null ? worker : limited(worker));
+		}
+
+		List<Future<Boolean>> futures;
+		try {
+			// invokeAll cancels whatever is still running at the deadline
+			futures = es.invokeAll(tasks, cycleDeadlineMills, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			System.err.println("poll cycle interrupted : " + e);
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		// devices skipped as DOWN (backoff) or with nothing due are not counted as success
+		int success = 0, failed = 0, timedOut = 0, notDue = 0, down = 0;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				if (futures.get(i).get()) {
+					int outcome = workers.get(i).getOutcome();
+					if (outcome == SnmpWorker.DOWN) {
+						down++;
+					} else if (outcome == SnmpWorker.NOT_DUE) {
+						notDue++;
+					} else {
+						success++;
+					}
+				} else {
+					failed++;
+				}
+			} catch (CancellationException e) {
+				timedOut++;
+				System.err.println("cycle deadline exceeded, deviceid : " + servers.get(i).getDeviceId());
+			} catch (ExecutionException e) {
+				failed++;
+				System.err.println("[ExecutionException] deviceid : " + servers.get(i).getDeviceId() + ", " + e.getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		System.out.println("cycle end, devices:" + servers.size() + ", success:" + success + ", failed:" + failed
+				+ ", timeout:" + timedOut + ", down:" + down + ", not due:" + notDue + ", mode:" + mode + ", concurrency:" + concurrency
+				+ ", elapsed:" + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * @description poll a single device (staggered scheduling), does not wait for it
+	 * @param server
+	 * @param session
+	 * @param inventory the results of the device are also published for the devices it is shared with
+	 * @return {Future}
+	 */
+	public Future<Boolean> submit(Device server, SnmpSession session, DeviceInventory inventory) {
+		SnmpWorker worker = new SnmpWorker(server.asMap(), session.getSnmp(server.getDeviceId()), inventory.sharedWith(server.getDeviceId()));
+		return es.submit(permits == null ? worker : limited(worker));
+	}
+
+	public void shutdown() {
+		es.shutdownNow();
+	}
+
+	/**
+	 * @description hold a permit while the worker runs
+	 */
+	private Callable<Boolean> limited(final Callable<Boolean> worker) {
+		return () -> {
+			permits.acquire();
+			try {
+				return worker.call();
+			} finally {
+				permits.release();
+			}
+		};
+	}
+}
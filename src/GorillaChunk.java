@@ -0,0 +1,204 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * @description Compressed samples of one series (Gorilla encoding), appended in time order.
+ * 	- time  : first sample 64 bits, then the delta of the delta to the previous sample
+ * 	          '0' same delta | '10' 7 bits | '110' 9 bits | '1110' 12 bits | '1111' 64 bits
+ * 	- value : first sample 64 bits, then XOR with the previous value
+ * 	          '0' same value | '10' meaningful bits inside the previous leading / trailing zeros
+ * 	          | '11' 5 bits leading zeros, 6 bits length - 1, meaningful bits
+ *
+ * 	Samples of a 30 second poll with a little jitter take a couple of bytes each instead of 16.
+ */
+public class GorillaChunk {
+
+	/**
+	 * @description receives decoded samples of a scan
+	 */
+	public interface Visitor {
+		void accept(long timeMills, double value);
+	}
+
+	private long[] words = new long[2];
+	private long bitLength = 0;
+
+	private int count = 0;
+	private long firstTime;
+	private long lastTime;
+	private long lastDelta = 0;
+	private long lastValueBits;
+	private int lastLeading = -1;
+	private int lastTrailing = 0;
+
+	/**
+	 * @param timeMills must be later than the last sample
+	 * @param value
+	 */
+	public void append(long timeMills, double value) {
+		long valueBits = Double.doubleToRawLongBits(value);
+		if (count == 0) {
+			firstTime = timeMills;
+			writeBits(timeMills, 64);
+			writeBits(valueBits, 64);
+		} else {
+			long delta = timeMills - lastTime;
+			writeDeltaOfDelta(delta - lastDelta);
+			lastDelta = delta;
+			writeValue(valueBits);
+		}
+		lastTime = timeMills;
+		lastValueBits = valueBits;
+		count++;
+	}
+
+	private void writeDeltaOfDelta(long dod) {
+		if (dod == 0) {
+			writeBits(0, 1);
+		} else if (dod >= -64 && dod <= 63) {
+			writeBits(0b10, 2);
+			writeBits(dod, 7);
+		} else if (dod >= -256 && dod <= 255) {
+			writeBits(0b110, 3);
+			writeBits(dod, 9);
+		} else if (dod >= -2048 && dod <= 2047) {
+			writeBits(0b1110, 4);
+			writeBits(dod, 12);
+		} else {
+			writeBits(0b1111, 4);
+			writeBits(dod, 64);
+		}
+	}
+
+	private void writeValue(long valueBits) {
+		long xor = valueBits ^ lastValueBits;
+		if (xor == 0) {
+			writeBits(0, 1);
+			return;
+		}
+		int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+		int trailing = Long.numberOfTrailingZeros(xor);
+		if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+			writeBits(0b10, 2);
+			writeBits(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+		} else {
+			int length = 64 - leading - trailing;
+			writeBits(0b11, 2);
+			writeBits(leading, 5);
+			writeBits(length - 1, 6);
+			writeBits(xor >>> trailing, length);
+			lastLeading = leading;
+			lastTrailing = trailing;
+		}
+	}
+
+	/**
+	 * @description write the low n bits of value, most significant first
+	 */
+	private void writeBits(long value, int n) {
+		while (n > 0) {
+			int word = (int) (bitLength >>> 6);
+			if (word == words.length) {
+				words = Arrays.copyOf(words, words.length * 2);
+			}
+			int free = 64 - (int) (bitLength & 63);
+			int take = Math.min(free, n);
+			long part = take == 64 ? value : (value >>> (n - take)) & ((1L << take) - 1);
+			words[word] |= part << (free - take);
+			bitLength += take;
+			n -= take;
+		}
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getFirstTime() {
+		return firstTime;
+	}
+
+	public long getLastTime() {
+		return lastTime;
+	}
+
+	/**
+	 * @return {byte[]} the encoded bits, padded to a whole byte
+	 */
+	public byte[] toBytes() {
+		byte[] bytes = new byte[(int) ((bitLength + 7) >>> 3)];
+		for (int i=0; i<bytes.length; i++) {
+			bytes[i] = (byte) (words[i >>> 3] >>> (56 - 8 * (i & 7)));
+		}
+		return bytes;
+	}
+
+	/**
+	 * @description decode count samples starting at offset and pass those within [fromMills, toMills] to the visitor
+	 * @param buf encoded bits (only absolute reads, the buffer position is not changed)
+	 * @param offset
+	 * @param count
+	 * @param fromMills
+	 * @param toMills
+	 * @param visitor
+	 */
+	public static void decode(ByteBuffer buf, int offset, int count, long fromMills, long toMills, Visitor visitor) {
+		BitReader in = new BitReader(buf, offset);
+		long time = 0, delta = 0, valueBits = 0;
+		int leading = 0, trailing = 0;
+		for (int i=0; i<count; i++) {
+			if (i == 0) {
+				time = in.read(64);
+				valueBits = in.read(64);
+			} else {
+				delta += readDeltaOfDelta(in);
+				time += delta;
+				if (in.read(1) == 1) {
+					if (in.read(1) == 1) {
+						leading = (int) in.read(5);
+						int length = (int) in.read(6) + 1;
+						trailing = 64 - leading - length;
+					}
+					valueBits ^= in.read(64 - leading - trailing) << trailing;
+				}
+			}
+			if (time > toMills) return;
+			if (time >= fromMills) {
+				visitor.accept(time, Double.longBitsToDouble(valueBits));
+			}
+		}
+	}
+
+	private static long readDeltaOfDelta(BitReader in) {
+		if (in.read(1) == 0) return 0;
+		if (in.read(1) == 0) return signed(in.read(7), 7);
+		if (in.read(1) == 0) return signed(in.read(9), 9);
+		if (in.read(1) == 0) return signed(in.read(12), 12);
+		return in.read(64);
+	}
+
+	private static long signed(long value, int bits) {
+		return (value << (64 - bits)) >> (64 - bits);
+	}
+
+	private static final class BitReader {
+		private final ByteBuffer buf;
+		private final int offset;
+		private long position = 0;
+
+		BitReader(ByteBuffer buf, int offset) {
+			this.buf = buf;
+			this.offset = offset;
+		}
+
+		long read(int n) {
+			long value = 0;
+			for (int i=0; i<n; i++) {
+				int b = buf.get(offset + (int) (position >>> 3));
+				value = (value << 1) | ((b >>> (7 - (position & 7))) & 1);
+				position++;
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.snmp4j.smi.OID;
+
+/**
+ * @description One compiled metric definition (see MetricDefinitions / config/metrics.properties).
+ * 	All columns are resolved to OIDs when the definitions are loaded, so extracting a metric is a loop
+ * 	over the primitive columns of the walk result. Rows of different columns are joined by row index.
+ */
+public class Metric {
+
+	public enum Aggregate {
+		AVG, SUM, RATIO, EACH, LIST;
+
+		/**
+		 * @return {boolean} true if the metric puts one value per row instead of one value
+		 */
+		public boolean perRow() {
+			return this == EACH || this == LIST;
+		}
+	}
+
+	/**
+	 * labels with a prefix or decoding are built once per distinct text
+	 * */
+	private final static int maxCachedLabels = 10000;
+
+	private final String name;
+	private final OID valueColumn;
+	private final OID percentOfColumn;
+	private final OID filterColumn;
+	private final boolean filterIn;
+	private final String[] filterValues;
+	private final Aggregate aggregate;
+	private final OID labelColumn;
+	private final String prefix;
+	private final boolean decode;
+	private final OID[] columns;
+	private final Map<String,String> labels = new ConcurrentHashMap<>();
+
+	Metric(String name, OID valueColumn, OID percentOfColumn, OID filterColumn, boolean filterIn, String[] filterValues,
+			Aggregate aggregate, OID labelColumn, String prefix, boolean decode) {
+		this.name = name;
+		this.valueColumn = valueColumn;
+		this.percentOfColumn = percentOfColumn;
+		this.filterColumn = filterColumn;
+		this.filterIn = filterIn;
+		this.filterValues = filterValues;
+		this.aggregate = aggregate;
+		this.labelColumn = labelColumn;
+		this.prefix = prefix;
+		this.decode = decode;
+		this.columns = new OID[] {valueColumn, percentOfColumn, filterColumn, labelColumn};
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Aggregate getAggregate() {
+		return aggregate;
+	}
+
+	/**
+	 * @return {OID[]} value, percentOf, filter and label column, null entries for the unused ones
+	 */
+	public OID[] getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @description extract this metric from the walk results of one poll
+	 * @param tables walk results of the poll (null entries for tables that were never walked)
+	 * @param values AVG, SUM, RATIO : name -> value
+	 * @param rowValues EACH : prefix + label -> value
+	 * @param rowList LIST : {label : value} per row
+	 */
+	public void extract(List<SnmpTable> tables, Map<String,Object> values, Map<String,Object> rowValues,
+			List<Map<String,Object>> rowList) {
+
+		SnmpTable.Column value = find(tables, valueColumn);
+		SnmpTable.Column percentOf = find(tables, percentOfColumn);
+		SnmpTable.Column filter = find(tables, filterColumn);
+		SnmpTable.Column label = find(tables, labelColumn);
+		if (value == null || (percentOfColumn != null && percentOf == null) || (filterColumn != null && filter == null)
+				|| (aggregate.perRow() && label == null)) {
+			return;
+		}
+
+		double sum = 0, valueSum = 0, percentOfSum = 0;
+		int count = 0;
+		for (int i=0; i<value.size(); i++) {
+			final int row = value.row(i);
+			if (filter != null) {
+				int f = filter.find(row);
+				if (f < 0 || !accept(filter.getText(f))) continue;
+			}
+			double v = value.getDouble(i);
+			if (percentOf != null) {
+				int p = percentOf.find(row);
+				if (p < 0) continue;
+				valueSum += v;
+				percentOfSum += percentOf.getDouble(p);
+				v = (v / percentOf.getDouble(p)) * 100;
+			}
+			sum += v;
+			count++;
+
+			if (aggregate.perRow()) {
+				int l = label.find(row);
+				if (l < 0) continue;
+				Object rowValue = percentOf == null ? (Object) value.getLong(i) : (Object) v;
+				if (aggregate == Aggregate.EACH) {
+					rowValues.put(labelOf(label.getText(l)), rowValue);
+				} else {
+					Map<String,Object> entry = new HashMap<String,Object>();
+					entry.put(labelOf(label.getText(l)), rowValue);
+					rowList.add(entry);
+				}
+			}
+		}
+
+		if (count == 0) return;
+		switch (aggregate) {
+		case AVG :
+			values.put(name, sum / count);
+			break;
+		case SUM :
+			values.put(name, sum);
+			break;
+		case RATIO :
+			values.put(name, (valueSum / percentOfSum) * 100);
+			break;
+		default :
+			break;
+		}
+	}
+
+	private boolean accept(String text) {
+		for (String filterValue : filterValues) {
+			if (filterValue.equalsIgnoreCase(text)) return filterIn;
+		}
+		return !filterIn;
+	}
+
+	private String labelOf(String text) {
+		if (prefix.isEmpty() && !decode) return text;
+		String label = labels.get(text);
+		if (label == null) {
+			if (labels.size() >= maxCachedLabels) labels.clear();
+			label = prefix + (decode ? SnmpWorker.getDecodeStr(text) : text);
+			labels.put(text, label);
+		}
+		return label;
+	}
+
+	private static SnmpTable.Column find(List<SnmpTable> tables, OID column) {
+		if (column == null) return null;
+		for (SnmpTable table : tables) {
+			SnmpTable.Column found = table == null ? null : table.column(column);
+			if (found != null) return found;
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return name + "(" + aggregate.name().toLowerCase() + " " + valueColumn + (percentOfColumn == null ? "" : " % " + percentOfColumn) + ")";
+	}
+}
@@ -0,0 +1,270 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.snmp4j.smi.OID;
+
+/**
+ * @description Metric definitions from config/metrics.properties (poller.metrics.file), compiled once.
+ * 	Every definition is resolved into a Metric with OID columns and an aggregate, and every distinct list of
+ * 	enabled metrics into a Plan : the metrics to extract and the tables / columns they need.
+ * 	Devices only walk the tables their plan reads (table retrieval only requests the columns it reads).
+ *
+ * 	Enabled metrics : metrics.enabled, per device device.<deviceid>.metrics.enabled in poller.properties.
+ * 	A definition that does not compile is reported and left out.
+ */
+public class MetricDefinitions {
+
+	private static MetricDefinitions definitions = null;
+
+	/**
+	 * HOST-RESOURCES-MIB columns that can be named in a definition
+	 * */
+	private final static Map<String,String> knownColumns = new HashMap<>();
+	static {
+		knownColumns.put("hrStorageType", ".1.3.6.1.2.1.25.2.3.1.2");
+		knownColumns.put("hrStorageDescr", ".1.3.6.1.2.1.25.2.3.1.3");
+		knownColumns.put("hrStorageAllocationUnits", ".1.3.6.1.2.1.25.2.3.1.4");
+		knownColumns.put("hrStorageSize", ".1.3.6.1.2.1.25.2.3.1.5");
+		knownColumns.put("hrStorageUsed", ".1.3.6.1.2.1.25.2.3.1.6");
+		knownColumns.put("hrSWRunName", ".1.3.6.1.2.1.25.4.2.1.2");
+		knownColumns.put("hrSWRunPerfMem", ".1.3.6.1.2.1.25.5.1.1.2");
+		knownColumns.put("hrProcessorLoad", ".1.3.6.1.2.1.25.3.3.1.2");
+	}
+
+	private final Properties props = new Properties();
+	private final Map<String,Metric> metrics = new LinkedHashMap<>();
+	private final List<String> defaultEnabled;
+	private final Map<List<String>,Plan> plans = new ConcurrentHashMap<>();
+
+	public static synchronized MetricDefinitions getInstance() {
+		if (definitions == null) {
+			definitions = new MetricDefinitions();
+		}
+		return definitions;
+	}
+
+	private MetricDefinitions() {
+		final String appHome = System.getProperty("user.dir");
+		final String metricsFile = PollerConfig.getInstance().getString("poller.metrics.file",
+				String.join(File.separator, appHome, "config", "metrics.properties"));
+		File file = new File(metricsFile);
+		if (file.exists()) {
+			try (InputStream in = new FileInputStream(file)) {
+				props.load(in);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		} else {
+			System.err.println("metric definition file not found : " + metricsFile);
+		}
+
+		for (String key : props.stringPropertyNames()) {
+			if (key.startsWith("metric.") && key.endsWith(".value")) {
+				String name = key.substring("metric.".length(), key.length() - ".value".length());
+				try {
+					metrics.put(name, compile(name));
+				} catch (IllegalArgumentException e) {
+					System.err.println("metric " + name + " is left out : " + e.getMessage());
+				}
+			}
+		}
+		this.defaultEnabled = split(props.getProperty("metrics.enabled", String.join(",", metrics.keySet())));
+		System.out.println("metric definitions : " + metrics.values() + ", enabled : " + defaultEnabled);
+	}
+
+	/**
+	 * @description plan of a device, devices with the same enabled metrics share one plan
+	 * @param deviceId
+	 * @return {Plan}
+	 */
+	public Plan plan(String deviceId) {
+		String enabled = PollerConfig.getInstance().getString("device." + deviceId + ".metrics.enabled", null);
+		return plans.computeIfAbsent(enabled == null ? defaultEnabled : split(enabled), this::compilePlan);
+	}
+
+	private Plan compilePlan(List<String> enabled) {
+		List<Metric> planned = new ArrayList<>();
+		for (String name : enabled) {
+			Metric metric = metrics.get(name);
+			if (metric == null) {
+				System.err.println("enabled metric " + name + " has no definition");
+			} else {
+				planned.add(metric);
+			}
+		}
+		return new Plan(planned);
+	}
+
+	private Metric compile(String name) {
+		final String prefix = "metric." + name + ".";
+
+		OID value = column(props.getProperty(prefix + "value"));
+		OID percentOf = optionalColumn(props.getProperty(prefix + "percentOf"));
+
+		String join = props.getProperty(prefix + "join", "index").trim();
+		if (!"index".equals(join)) {
+			throw new IllegalArgumentException("join " + join + " is not supported, rows are joined by index");
+		}
+
+		OID filterColumn = null;
+		boolean filterIn = true;
+		String[] filterValues = new String[0];
+		String filter = props.getProperty(prefix + "filter");
+		if (filter != null && !filter.trim().isEmpty()) {
+			String[] parts = filter.trim().split("\\s+", 3);
+			if (parts.length < 3 || !("in".equals(parts[1]) || "notin".equals(parts[1]))) {
+				throw new IllegalArgumentException("filter must be <column> in|notin <text>,<text>... : " + filter);
+			}
+			filterColumn = column(parts[0]);
+			filterIn = "in".equals(parts[1]);
+			filterValues = split(parts[2]).toArray(new String[0]);
+		}
+
+		Metric.Aggregate aggregate;
+		try {
+			aggregate = Metric.Aggregate.valueOf(props.getProperty(prefix + "aggregate", "avg").trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("unknown aggregate " + props.getProperty(prefix + "aggregate"));
+		}
+		if (aggregate == Metric.Aggregate.RATIO && percentOf == null) {
+			throw new IllegalArgumentException("ratio needs percentOf");
+		}
+
+		OID label = optionalColumn(props.getProperty(prefix + "label"));
+		if (aggregate.perRow() && label == null) {
+			throw new IllegalArgumentException(aggregate.name().toLowerCase() + " needs a label column");
+		}
+
+		for (OID column : new OID[] {value, percentOf, filterColumn, label}) {
+			if (column != null) tableOf(column);
+		}
+		return new Metric(name, value, percentOf, filterColumn, filterIn, filterValues, aggregate, label,
+				props.getProperty(prefix + "prefix", "").trim(), Boolean.parseBoolean(props.getProperty(prefix + "decode", "false").trim()));
+	}
+
+	private static OID optionalColumn(String column) {
+		return column == null || column.trim().isEmpty() ? null : column(column);
+	}
+
+	private static OID column(String column) {
+		if (column == null || column.trim().isEmpty()) {
+			throw new IllegalArgumentException("value column missing");
+		}
+		String oid = knownColumns.get(column.trim());
+		if (oid == null && column.trim().startsWith(".")) {
+			oid = column.trim();
+		}
+		if (oid == null) {
+			throw new IllegalArgumentException("unknown column " + column);
+		}
+		return new OID(oid);
+	}
+
+	/**
+	 * @description walked table (OidGroup table oid) a column belongs to
+	 * @param column
+	 * @return {String}
+	 */
+	static String tableOf(OID column) {
+		for (OidGroup group : OidGroup.values()) {
+			for (String tableOid : group.getTableOids()) {
+				OID table = new OID(tableOid);
+				if (column.startsWith(table) && column.size() <= table.size() + 1) {
+					return tableOid;
+				}
+			}
+		}
+		throw new IllegalArgumentException("column " + column + " is not in a walked table");
+	}
+
+	private static List<String> split(String list) {
+		List<String> result = new ArrayList<>();
+		for (String item : list.split(",")) {
+			if (!item.trim().isEmpty()) result.add(item.trim());
+		}
+		return result;
+	}
+
+	/**
+	 * @description compiled fetch plan of a list of enabled metrics
+	 */
+	public static final class Plan {
+		private final List<Metric> metrics;
+		private final Set<OidGroup> groups = EnumSet.noneOf(OidGroup.class);
+		private final Map<String,String[]> tableColumns = new HashMap<>();
+		private final Map<Metric,Set<String>> metricTables = new HashMap<>();
+
+		Plan(List<Metric> metrics) {
+			this.metrics = Collections.unmodifiableList(metrics);
+			Map<String,Set<String>> columns = new HashMap<>();
+			for (Metric metric : metrics) {
+				Set<String> tables = new HashSet<>();
+				metricTables.put(metric, tables);
+				for (OID column : metric.getColumns()) {
+					if (column == null) continue;
+					String tableOid = tableOf(column);
+					tables.add(tableOid);
+					groups.add(OidGroup.of(tableOid));
+					columns.computeIfAbsent(tableOid, t -> new LinkedHashSet<>()).add("." + column.toString());
+				}
+			}
+			for (Map.Entry<String,Set<String>> e : columns.entrySet()) {
+				tableColumns.put(e.getKey(), e.getValue().toArray(new String[0]));
+			}
+		}
+
+		public List<Metric> getMetrics() {
+			return metrics;
+		}
+
+		/**
+		 * @param tableOids tables walked on a tick
+		 * @return {List<Metric>} metrics that read only these tables, in plan order
+		 */
+		public List<Metric> metricsOf(Set<String> tableOids) {
+			List<Metric> result = new ArrayList<>(metrics.size());
+			for (Metric metric : metrics) {
+				if (tableOids.containsAll(metricTables.get(metric))) result.add(metric);
+			}
+			return result;
+		}
+
+		/**
+		 * @param group
+		 * @return {boolean} true if a metric reads a table of the group
+		 */
+		public boolean uses(OidGroup group) {
+			return groups.contains(group);
+		}
+
+		/**
+		 * @param tableOid
+		 * @return {boolean} true if a metric reads the table
+		 */
+		public boolean reads(String tableOid) {
+			return tableColumns.containsKey(tableOid);
+		}
+
+		/**
+		 * @param tableOid
+		 * @return {String[]} columns of the table the metrics read, empty if none
+		 */
+		public String[] columnsOf(String tableOid) {
+			String[] columns = tableColumns.get(tableOid);
+			return columns == null ? new String[0] : columns;
+		}
+	}
+}
@@ -0,0 +1,377 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @description Asynchronous output of poll results : device workers publish (device, metric, time, value) records
+ * 	into a bounded ring buffer with preallocated slots, a dedicated writer thread drains it in batches
+ * 	(sink.batch.size records or sink.batch.max.delay.millis, whichever comes first) and hands every batch
+ * 	to the configured backends (sink.backends : file, tcp, store).
+ *
+ * 	When the buffer is full (sink.policy)
+ * 	- drop   : the new record is dropped and counted
+ * 	- block  : the publishing worker waits for space
+ * 	- sample : above half full only every sink.sample.every-th record is kept, when full it is dropped
+ *
+ * 	A batch that no backend could write is counted as dropped as well.
+ * 	Queue depth, drops and writes are printed every sink.report.seconds.
+ */
+public class MetricSink {
+
+	/**
+	 * @description output of the writer thread, called with one batch at a time from the writer thread only
+	 */
+	public interface Backend {
+		void write(Batch batch) throws IOException;
+
+		void close();
+	}
+
+	public enum Policy { DROP, BLOCK, SAMPLE }
+
+	private static MetricSink sink = null;
+
+	private final int capacity;
+	private final long[] times;
+	private final String[] devices;
+	private final String[] metrics;
+	private final double[] values;
+	private long head = 0; // next slot to read
+	private long tail = 0; // next slot to write
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private final Policy policy;
+	private final int sampleEvery;
+	private final int batchSize;
+	private final long batchDelayNanos;
+	private final long reportMills;
+	private final List<Backend> backends;
+	private final Batch batch;
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong sampled = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong writeErrors = new AtomicLong();
+	private long sampleSeq = 0;
+	private int maxDepth = 0;
+
+	/**
+	 * @return {MetricSink} the sink of sink.backends, or null if no backend is configured (sink.backends=none)
+	 */
+	public static synchronized MetricSink getInstance() {
+		if (sink == null) {
+			List<Backend> backends = backendsFromConfig();
+			if (backends.isEmpty()) {
+				return null;
+			}
+			PollerConfig config = PollerConfig.getInstance();
+			sink = new MetricSink(backends,
+					config.getInt("sink.capacity", 65536),
+					Policy.valueOf(config.getString("sink.policy", "drop").toUpperCase()),
+					config.getInt("sink.sample.every", 10),
+					config.getInt("sink.batch.size", 1000),
+					config.getLong("sink.batch.max.delay.millis", 1000),
+					config.getLong("sink.report.seconds", 60) * 1000);
+			sink.start();
+		}
+		return sink;
+	}
+
+	/**
+	 * @description drain what is buffered, close the backends, called when the poller stops
+	 */
+	public static synchronized void shutdown() {
+		if (sink != null) {
+			sink.stop();
+			sink = null;
+		}
+	}
+
+	private static List<Backend> backendsFromConfig() {
+		PollerConfig config = PollerConfig.getInstance();
+		List<Backend> backends = new ArrayList<>();
+		for (String name : config.getString("sink.backends", "none").split(",")) {
+			name = name.trim();
+			if ("file".equals(name)) {
+				backends.add(new FileLineBackend(config.getString("sink.file", "logs/metrics.lp")));
+			} else if ("tcp".equals(name)) {
+				backends.add(new TcpLineBackend(config.getString("sink.tcp.host", "127.0.0.1"), config.getInt("sink.tcp.port", 8094)));
+			} else if ("store".equals(name)) {
+				backends.add(TimeSeriesStore.getInstance());
+			} else if (!name.isEmpty() && !"none".equals(name)) {
+				System.err.println("unknown sink backend : " + name);
+			}
+		}
+		return backends;
+	}
+
+	public MetricSink(List<Backend> backends, int capacity, Policy policy, int sampleEvery, int batchSize, long batchDelayMills, long reportMills) {
+		this.backends = backends;
+		this.capacity = Math.max(1, capacity);
+		this.times = new long[this.capacity];
+		this.devices = new String[this.capacity];
+		this.metrics = new String[this.capacity];
+		this.values = new double[this.capacity];
+		this.policy = policy;
+		this.sampleEvery = Math.max(1, sampleEvery);
+		this.batchSize = Math.max(1, Math.min(batchSize, this.capacity));
+		this.batchDelayNanos = TimeUnit.MILLISECONDS.toNanos(batchDelayMills);
+		this.reportMills = reportMills;
+		this.batch = new Batch(this.batchSize);
+		this.writer = new Thread(this::run, "metric-sink-writer");
+		this.writer.setDaemon(true);
+	}
+
+	public void start() {
+		writer.start();
+		System.out.println("metric sink started, backends:" + backends.size() + ", capacity:" + capacity
+				+ ", batch:" + batchSize + ", policy:" + policy);
+	}
+
+	public void stop() {
+		running = false;
+		lock.lock();
+		try {
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Backend backend : backends) {
+			backend.close();
+		}
+	}
+
+	/**
+	 * @description publish one record, never blocks unless sink.policy=block
+	 * @param deviceId
+	 * @param metric
+	 * @param timeMills
+	 * @param value
+	 * @return {boolean} false if the record was dropped or sampled out
+	 */
+	public boolean publish(String deviceId, String metric, long timeMills, double value) {
+		lock.lock();
+		try {
+			int depth = (int) (tail - head);
+			if (policy == Policy.SAMPLE && depth >= capacity / 2 && ++sampleSeq % sampleEvery != 0) {
+				sampled.incrementAndGet();
+				return false;
+			}
+			while (depth >= capacity) {
+				if (policy != Policy.BLOCK || !running) {
+					dropped.incrementAndGet();
+					return false;
+				}
+				try {
+					notFull.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped.incrementAndGet();
+					return false;
+				}
+				depth = (int) (tail - head);
+			}
+
+			int slot = (int) (tail % capacity);
+			times[slot] = timeMills;
+			devices[slot] = deviceId;
+			metrics[slot] = metric;
+			values[slot] = value;
+			tail++;
+			published.incrementAndGet();
+
+			if (++depth > maxDepth) maxDepth = depth;
+			if (depth == batchSize) notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getQueueDepth() {
+		lock.lock();
+		try {
+			return (int) (tail - head);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getSampled() {
+		return sampled.get();
+	}
+
+	public long getWritten() {
+		return written.get();
+	}
+
+	private void run() {
+		long nextReport = System.currentTimeMillis() + reportMills;
+		while (true) {
+			int n = drain();
+			if (n > 0) {
+				write();
+			} else if (!running) {
+				return;
+			}
+			if (reportMills > 0 && System.currentTimeMillis() >= nextReport) {
+				nextReport += reportMills;
+				System.out.println("Sink Report [" + new Date() + "] " + report());
+			}
+		}
+	}
+
+	/**
+	 * @description wait until a batch is full or the batch delay is over, then move up to batchSize records into the batch
+	 * @return {int} records moved
+	 */
+	private int drain() {
+		lock.lock();
+		try {
+			long left = batchDelayNanos;
+			while (running && tail - head < batchSize && left > 0) {
+				try {
+					left = notEmpty.awaitNanos(left);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+			int n = (int) Math.min(tail - head, batchSize);
+			for (int i=0; i<n; i++) {
+				int slot = (int) ((head + i) % capacity);
+				batch.times[i] = times[slot];
+				batch.devices[i] = devices[slot];
+				batch.metrics[i] = metrics[slot];
+				batch.values[i] = values[slot];
+				devices[slot] = null;
+				metrics[slot] = null;
+			}
+			batch.size = n;
+			head += n;
+			if (n > 0) notFull.signalAll();
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @description hand the batch to every backend; it counts as written if at least one backend took it,
+	 * 	as dropped if all of them failed
+	 */
+	private void write() {
+		boolean stored = false;
+		for (Backend backend : backends) {
+			try {
+				backend.write(batch);
+				stored = true;
+			} catch (Exception e) {
+				writeErrors.incrementAndGet();
+				System.err.println("metric sink write failed : " + e);
+			}
+		}
+		if (stored) {
+			written.addAndGet(batch.size);
+			batches.incrementAndGet();
+		} else {
+			dropped.addAndGet(batch.size);
+		}
+	}
+
+	private String report() {
+		int depth;
+		int max;
+		lock.lock();
+		try {
+			depth = (int) (tail - head);
+			max = maxDepth;
+			maxDepth = depth;
+		} finally {
+			lock.unlock();
+		}
+		return "published:" + published + ", written:" + written + ", batches:" + batches
+				+ ", queue depth:" + depth + "/" + capacity + " (max " + max + ")"
+				+ ", dropped:" + dropped + ", sampled out:" + sampled + ", write errors:" + writeErrors;
+	}
+
+	/**
+	 * @description records drained by the writer thread, preallocated and reused for every batch
+	 */
+	public static final class Batch {
+		final long[] times;
+		final String[] devices;
+		final String[] metrics;
+		final double[] values;
+		int size;
+
+		Batch(int capacity) {
+			times = new long[capacity];
+			devices = new String[capacity];
+			metrics = new String[capacity];
+			values = new double[capacity];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public long time(int i) {
+			return times[i];
+		}
+
+		public String device(int i) {
+			return devices[i];
+		}
+
+		public String metric(int i) {
+			return metrics[i];
+		}
+
+		public double value(int i) {
+			return values[i];
+		}
+
+		/**
+		 * @description record i in line protocol : snmp,device=<id>,metric=<name> value=<v> <epoch nanos>
+		 * @param i
+		 * @param sb
+		 */
+		public void appendLine(int i, StringBuilder sb) {
+			sb.append("snmp,device=");
+			escapeTag(devices[i], sb);
+			sb.append(",metric=");
+			escapeTag(metrics[i], sb);
+			sb.append(" value=").append(values[i]).append(' ').append(times[i]).append("000000\n");
+		}
+
+		private static void escapeTag(String tag, StringBuilder sb) {
+			for (int i=0; i<tag.length(); i++) {
+				char c = tag.charAt(i);
+				if (c == ' ' || c == ',' || c == '=') sb.append('\\');
+				sb.append(c);
+			}
+		}
+	}
+}
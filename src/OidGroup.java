@@ -0,0 +1,50 @@
+/**
+ * @description OID groups that are walked on their own interval.
+ * 	Interval per group : group.<name>.interval.seconds
+ * 	Interval per device : device.<deviceid>.group.<name>.interval.seconds (overrides the group value)
+ */
+public enum OidGroup {
+
+	STORAGE("storage", 30, ".1.3.6.1.2.1.25.2.3.1"),						// hrStorageEntry (Disk, Memory, Swap)
+	PROCESS("process", 300, ".1.3.6.1.2.1.25.4.2.1.2", ".1.3.6.1.2.1.25.5.1.1.2"),	// hrSWRunName, hrSWRunPerfMem
+	CPU("cpu", 10, ".1.3.6.1.2.1.25.3.3.1.2");								// hrProcessorLoad
+
+	private final String key;
+	private final long defaultIntervalSeconds;
+	private final String[] tableOids;
+
+	OidGroup(String key, long defaultIntervalSeconds, String... tableOids) {
+		this.key = key;
+		this.defaultIntervalSeconds = defaultIntervalSeconds;
+		this.tableOids = tableOids;
+	}
+
+	public String[] getTableOids() {
+		return tableOids;
+	}
+
+	/**
+	 * @description group of a walked table oid
+	 * @param tableOid
+	 * @return {OidGroup}
+	 */
+	public static OidGroup of(String tableOid) {
+		for (OidGroup group : values()) {
+			for (String oid : group.tableOids) {
+				if (oid.equals(tableOid)) return group;
+			}
+		}
+		throw new IllegalArgumentException("no oid group for " + tableOid);
+	}
+
+	/**
+	 * @description configured interval of this group for a device
+	 * @param deviceId
+	 * @return {long} mills
+	 */
+	public long intervalMills(String deviceId) {
+		PollerConfig config = PollerConfig.getInstance();
+		long group = config.getLong("group." + key + ".interval.seconds", defaultIntervalSeconds);
+		return config.getLong("device." + deviceId + ".group." + key + ".interval.seconds", group) * 1000;
+	}
+}
@@ -0,0 +1,226 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @description Poll health of one device, kept in its DeviceState and exported by PollStatsExporter.
+ * 	- walk latency per OID group (poll start until the table is complete) and response time per PDU, as histograms
+ * 	- PDUs sent / received, retries and request timeouts (snmp4j per target counters)
+ * 	- walk timeouts (threadTimeoutMills), tooBig responses, walks and varbinds per OID group
+ * 	- poll duration compared with the poll interval
+ */
+public class PollStats {
+
+	private final String deviceId;
+	private final Histogram[] walkLatency = new Histogram[OidGroup.values().length];
+	private final Histogram responseTime = new Histogram();
+	private final AtomicLongArray walks = new AtomicLongArray(OidGroup.values().length);
+	private final AtomicLongArray varbinds = new AtomicLongArray(OidGroup.values().length);
+	private final AtomicLongArray lastVarbinds = new AtomicLongArray(OidGroup.values().length);
+
+	final AtomicLong responses = new AtomicLong();
+	final AtomicLong retries = new AtomicLong();
+	final AtomicLong requestTimeouts = new AtomicLong();
+	private final AtomicLong walkTimeouts = new AtomicLong();
+	private final AtomicLong tooBig = new AtomicLong();
+
+	private final Histogram pollDuration = new Histogram();
+	private final AtomicLong overruns = new AtomicLong();
+	private volatile long lastPollMills = 0;
+	private volatile long lastPollDurationMills = 0;
+
+	PollStats(String deviceId) {
+		this.deviceId = deviceId;
+		for (int i=0; i<walkLatency.length; i++) {
+			walkLatency[i] = new Histogram();
+		}
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	/**
+	 * @description a table of the group is complete
+	 * @param group
+	 * @param elapsedMills since the poll started
+	 * @param varbindCount values in the result
+	 */
+	public void walked(OidGroup group, long elapsedMills, int varbindCount) {
+		walkLatency[group.ordinal()].record(elapsedMills);
+		walks.incrementAndGet(group.ordinal());
+		varbinds.addAndGet(group.ordinal(), varbindCount);
+		lastVarbinds.set(group.ordinal(), varbindCount);
+	}
+
+	/**
+	 * @description a response arrived (snmp4j request wait time)
+	 * @param mills
+	 */
+	public void responded(long mills) {
+		responses.incrementAndGet();
+		responseTime.record(mills);
+	}
+
+	/**
+	 * @description one poll is processed
+	 * @param startMills
+	 * @param durationMills
+	 * @param intervalMills the poll interval the duration should stay below
+	 * @param pollWalkTimeouts walks / requests of the poll that hit threadTimeoutMills
+	 * @param pollTooBig tooBig responses of the poll
+	 */
+	public void polled(long startMills, long durationMills, long intervalMills, int pollWalkTimeouts, int pollTooBig) {
+		pollDuration.record(durationMills);
+		lastPollMills = startMills;
+		lastPollDurationMills = durationMills;
+		if (durationMills > intervalMills) overruns.incrementAndGet();
+		walkTimeouts.addAndGet(pollWalkTimeouts);
+		tooBig.addAndGet(pollTooBig);
+	}
+
+	public Histogram getWalkLatency(OidGroup group) {
+		return walkLatency[group.ordinal()];
+	}
+
+	public Histogram getResponseTime() {
+		return responseTime;
+	}
+
+	public Histogram getPollDuration() {
+		return pollDuration;
+	}
+
+	public long getWalks(OidGroup group) {
+		return walks.get(group.ordinal());
+	}
+
+	public long getVarbinds(OidGroup group) {
+		return varbinds.get(group.ordinal());
+	}
+
+	public long getLastVarbinds(OidGroup group) {
+		return lastVarbinds.get(group.ordinal());
+	}
+
+	/**
+	 * @return {long} requests sent including retransmissions : answered + retried + timed out
+	 */
+	public long getPdusSent() {
+		return responses.get() + retries.get() + requestTimeouts.get();
+	}
+
+	public long getPdusReceived() {
+		return responses.get();
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	public long getRequestTimeouts() {
+		return requestTimeouts.get();
+	}
+
+	public long getWalkTimeouts() {
+		return walkTimeouts.get();
+	}
+
+	public long getTooBig() {
+		return tooBig.get();
+	}
+
+	public long getOverruns() {
+		return overruns.get();
+	}
+
+	public long getLastPollMills() {
+		return lastPollMills;
+	}
+
+	public long getLastPollDurationMills() {
+		return lastPollDurationMills;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(deviceId);
+		sb.append(" poll last:").append(lastPollDurationMills).append("ms p50:").append(pollDuration.percentile(0.5))
+				.append("ms p99:").append(pollDuration.percentile(0.99)).append("ms max:").append(pollDuration.getMax())
+				.append("ms overruns:").append(overruns);
+		for (OidGroup group : OidGroup.values()) {
+			Histogram h = walkLatency[group.ordinal()];
+			if (h.getCount() == 0) continue;
+			sb.append(", ").append(group.name().toLowerCase()).append(" p50:").append(h.percentile(0.5))
+					.append("ms p99:").append(h.percentile(0.99)).append("ms varbinds:").append(lastVarbinds.get(group.ordinal()));
+		}
+		sb.append(", pdus sent:").append(getPdusSent()).append(" received:").append(responses)
+				.append(" retries:").append(retries).append(" timeouts:").append(requestTimeouts)
+				.append(" walk timeouts:").append(walkTimeouts).append(" tooBig:").append(tooBig);
+		return sb.toString();
+	}
+
+	/**
+	 * @description lock-free histogram of milliseconds in power of two buckets :
+	 * 	bucket 0 = 0ms, bucket k = [2^(k-1), 2^k) ms, the last bucket everything from 2^(buckets-2) ms.
+	 * 	Percentiles are the upper bound of the bucket they fall in.
+	 */
+	public static final class Histogram {
+		public final static int buckets = 18;
+
+		private final AtomicLongArray counts = new AtomicLongArray(buckets);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		public void record(long mills) {
+			if (mills < 0) mills = 0;
+			counts.incrementAndGet(Math.min(buckets - 1, 64 - Long.numberOfLeadingZeros(mills)));
+			count.incrementAndGet();
+			sum.addAndGet(mills);
+			long m;
+			while (mills > (m = max.get()) && !max.compareAndSet(m, mills)) {
+				// retry
+			}
+		}
+
+		/**
+		 * @param bucket
+		 * @return {long} upper bound of the bucket in mills, Long.MAX_VALUE for the last one
+		 */
+		public static long upperBound(int bucket) {
+			return bucket == buckets - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+		}
+
+		public long getBucket(int bucket) {
+			return counts.get(bucket);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getSum() {
+			return sum.get();
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * @param p 0..1
+		 * @return {long} upper bound of the bucket of the p-th value (max for the last bucket), 0 if empty
+		 */
+		public long percentile(double p) {
+			long total = count.get();
+			if (total == 0) return 0;
+			long rank = (long) Math.ceil(total * p);
+			long seen = 0;
+			for (int i=0; i<buckets; i++) {
+				seen += counts.get(i);
+				if (seen >= rank) return Math.min(upperBound(i), max.get());
+			}
+			return max.get();
+		}
+	}
+}
@@ -0,0 +1,412 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.snmp4j.SNMP4JSettings;
+import org.snmp4j.Snmp;
+import org.snmp4j.event.CounterEvent;
+import org.snmp4j.event.CounterListener;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @description Export of the PollStats of every device.
+ * 	- snmp4j per target counters (extended statistics) are mapped to the device of the target address :
+ * 	  response wait time, retries and request timeouts
+ * 	- JMX : snmp4j.poller:type=PollStats, fleet totals, suspect / down devices, the slowest devices and the session transports
+ * 	- HTTP (stats.http.port, 0 = off, bound to stats.http.host) :
+ * 	  /metrics          Prometheus text format, all devices and transports or ?device=<deviceid>
+ * 	  /top?n=<count>    slowest devices by their last poll duration
+ * 	A device whose agent is polled through another device (poller.coalesce) sends no PDU of its own : it is left out
+ * 	of the stats and health counts and /metrics only exports the health of the device that polls its agent.
+ */
+public class PollStatsExporter {
+
+	/**
+	 * @description fleet view for JMX
+	 */
+	public interface PollStatsMXBean {
+		int getDevices();
+
+		int getSuspectDevices();
+
+		int getDownDevices();
+
+		long getPdusSent();
+
+		long getPdusReceived();
+
+		long getRetries();
+
+		long getRequestTimeouts();
+
+		long getWalkTimeouts();
+
+		long getTooBig();
+
+		long getOverruns();
+
+		String device(String deviceId);
+
+		String[] slowest(int count);
+
+		String[] transports();
+	}
+
+	private static PollStatsExporter exporter = null;
+
+	private final Map<Address,PollStats> targets = new ConcurrentHashMap<>();
+	private HttpServer http = null;
+
+	/**
+	 * @description start counting and exporting for the shared session, once
+	 * @param snmp
+	 */
+	public static synchronized void install(Snmp snmp) {
+		if (exporter != null || !PollerConfig.getInstance().getBoolean("stats.enabled", true)) return;
+		exporter = new PollStatsExporter();
+		SNMP4JSettings.setSnmp4jStatistics(SNMP4JSettings.Snmp4jStatistics.extended);
+		snmp.getCounterSupport().addCounterListener(exporter.counters);
+		exporter.registerMBean();
+		exporter.startHttp(PollerConfig.getInstance().getString("stats.http.host", "127.0.0.1"),
+				PollerConfig.getInstance().getInt("stats.http.port", 0));
+	}
+
+	public static synchronized void shutdown() {
+		if (exporter == null) return;
+		if (exporter.http != null) {
+			exporter.http.stop(0);
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName("snmp4j.poller:type=PollStats"));
+		} catch (Exception e) {
+			// not registered
+		}
+		exporter = null;
+	}
+
+	/**
+	 * @description map the target address of a device to its stats, so snmp4j counters reach the device
+	 * @param address
+	 * @param stats
+	 */
+	public static void target(Address address, PollStats stats) {
+		PollStatsExporter e = exporter;
+		if (e != null && e.targets.get(address) != stats) {
+			e.targets.put(address, stats);
+		}
+	}
+
+	private final CounterListener counters = new CounterListener() {
+		@Override
+		public void incrementCounter(CounterEvent event) {
+			Object index = event.getIndex();
+			if (!(index instanceof Address)) return;
+			PollStats stats = targets.get(index);
+			if (stats == null) return;
+			if (SnmpConstants.snmp4jStatsReqTableWaitTime.equals(event.getOid())) {
+				stats.responded(TimeUnit.NANOSECONDS.toMillis(event.getIncrement()));
+			} else if (SnmpConstants.snmp4jStatsReqTableRetries.equals(event.getOid())) {
+				stats.retries.incrementAndGet();
+			} else if (SnmpConstants.snmp4jStatsReqTableTimeouts.equals(event.getOid())) {
+				stats.requestTimeouts.incrementAndGet();
+			}
+		}
+	};
+
+	private void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new PollStatsMXBean() {
+				@Override
+				public int getDevices() {
+					return all().size();
+				}
+
+				@Override
+				public int getSuspectDevices() {
+					return countHealth(DeviceHealth.SUSPECT);
+				}
+
+				@Override
+				public int getDownDevices() {
+					return countHealth(DeviceHealth.DOWN);
+				}
+
+				@Override
+				public long getPdusSent() {
+					long n = 0;
+					for (PollStats s : all()) n += s.getPdusSent();
+					return n;
+				}
+
+				@Override
+				public long getPdusReceived() {
+					long n = 0;
+					for (PollStats s : all()) n += s.getPdusReceived();
+					return n;
+				}
+
+				@Override
+				public long getRetries() {
+					long n = 0;
+					for (PollStats s : all()) n += s.getRetries();
+					return n;
+				}
+
+				@Override
+				public long getRequestTimeouts() {
+					long n = 0;
+					for (PollStats s : all()) n += s.getRequestTimeouts();
+					return n;
+				}
+
+				@Override
+				public long getWalkTimeouts() {
+					long n = 0;
+					for (PollStats s : all()) n += s.getWalkTimeouts();
+					return n;
+				}
+
+				@Override
+				public long getTooBig() {
+					long n = 0;
+					for (PollStats s : all()) n += s.getTooBig();
+					return n;
+				}
+
+				@Override
+				public long getOverruns() {
+					long n = 0;
+					for (PollStats s : all()) n += s.getOverruns();
+					return n;
+				}
+
+				@Override
+				public String device(String deviceId) {
+					String poller = polledBy(deviceId);
+					String id = poller == null ? deviceId : poller;
+					for (PollStats s : all()) {
+						if (s.getDeviceId().equals(id)) return poller == null ? s.toString() : "polled by " + s;
+					}
+					return null;
+				}
+
+				@Override
+				public String[] slowest(int count) {
+					List<String> lines = new ArrayList<>();
+					for (PollStats s : slowestDevices(count)) lines.add(s.toString());
+					return lines.toArray(new String[0]);
+				}
+
+				@Override
+				public String[] transports() {
+					List<String> lines = new ArrayList<>();
+					SnmpSession session = SnmpSession.getOpened();
+					if (session != null) {
+						Map<Integer,long[]> kernel = PooledUdpTransport.kernelStats();
+						for (PooledUdpTransport t : session.getTransports()) {
+							lines.add(t.report(kernel, session.getPending(t.getIndex())));
+						}
+					}
+					return lines.toArray(new String[0]);
+				}
+			}, new ObjectName("snmp4j.poller:type=PollStats"));
+		} catch (Exception e) {
+			System.err.println("poll stats mbean not registered : " + e);
+		}
+	}
+
+	private void startHttp(String host, int port) {
+		if (port <= 0) return;
+		try {
+			http = HttpServer.create(new InetSocketAddress(host, port), 0);
+			http.createContext("/metrics", this::metrics);
+			http.createContext("/top", this::top);
+			http.setExecutor(Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "poll-stats-http");
+				t.setDaemon(true);
+				return t;
+			}));
+			http.start();
+			System.out.println("poll stats http on " + host + ":" + port + " (/metrics, /top)");
+		} catch (IOException e) {
+			System.err.println("poll stats http not started : " + e);
+			http = null;
+		}
+	}
+
+	/**
+	 * @return {List<PollStats>} stats of the devices that are polled themselves
+	 */
+	private static List<PollStats> all() {
+		List<PollStats> stats = new ArrayList<>();
+		for (DeviceState state : DeviceState.all()) {
+			if (polledBy(state.getPollStats().getDeviceId()) == null) stats.add(state.getPollStats());
+		}
+		return stats;
+	}
+
+	private static int countHealth(int health) {
+		int n = 0;
+		for (DeviceState state : DeviceState.all()) {
+			if (polledBy(state.getPollStats().getDeviceId()) == null && state.getHealth().getState() == health) n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return {String} the device that polls the agent of a shared device, null if the device is polled itself
+	 */
+	private static String polledBy(String deviceId) {
+		DeviceInventory inventory = DeviceInventory.getLoaded();
+		return inventory == null ? null : inventory.polledBy(deviceId);
+	}
+
+	private static List<PollStats> slowestDevices(int count) {
+		List<PollStats> stats = all();
+		stats.sort((a, b) -> Long.compare(b.getLastPollDurationMills(), a.getLastPollDurationMills()));
+		return stats.subList(0, Math.min(Math.max(0, count), stats.size()));
+	}
+
+	private void metrics(HttpExchange exchange) throws IOException {
+		String device = query(exchange, "device");
+		StringBuilder sb = new StringBuilder(64 * 1024);
+		for (DeviceState state : DeviceState.all()) {
+			String deviceId = state.getPollStats().getDeviceId();
+			if (device != null && !device.equals(deviceId)) continue;
+			String poller = polledBy(deviceId);
+			if (poller == null) {
+				appendMetrics(state.getPollStats(), state.getHealth(), sb);
+			} else {
+				DeviceState polling = DeviceState.get(poller);
+				if (polling != null) appendSharedHealth(deviceId, poller, polling.getHealth(), sb);
+			}
+		}
+		SnmpSession session = SnmpSession.getOpened();
+		if (device == null && session != null) {
+			appendTransportMetrics(session, sb);
+		}
+		respond(exchange, sb);
+	}
+
+	private void top(HttpExchange exchange) throws IOException {
+		int n = 20;
+		try {
+			String q = query(exchange, "n");
+			if (q != null) n = Integer.parseInt(q);
+		} catch (NumberFormatException e) {
+			// default
+		}
+		StringBuilder sb = new StringBuilder();
+		for (PollStats s : slowestDevices(n)) {
+			sb.append(s).append('\n');
+		}
+		respond(exchange, sb);
+	}
+
+	private static void appendMetrics(PollStats s, DeviceHealth health, StringBuilder sb) {
+		String device = "device=\"" + escape(s.getDeviceId()) + "\"";
+		for (OidGroup group : OidGroup.values()) {
+			PollStats.Histogram h = s.getWalkLatency(group);
+			if (h.getCount() == 0) continue;
+			String labels = device + ",group=\"" + group.name().toLowerCase() + "\"";
+			appendHistogram("snmp_walk_latency_ms", labels, h, sb);
+			sb.append("snmp_walks_total{").append(labels).append("} ").append(s.getWalks(group)).append('\n');
+			sb.append("snmp_walk_varbinds_total{").append(labels).append("} ").append(s.getVarbinds(group)).append('\n');
+			sb.append("snmp_walk_varbinds_last{").append(labels).append("} ").append(s.getLastVarbinds(group)).append('\n');
+		}
+		appendHistogram("snmp_response_time_ms", device, s.getResponseTime(), sb);
+		appendHistogram("snmp_poll_duration_ms", device, s.getPollDuration(), sb);
+		sb.append("snmp_poll_duration_ms_last{").append(device).append("} ").append(s.getLastPollDurationMills()).append('\n');
+		sb.append("snmp_poll_overruns_total{").append(device).append("} ").append(s.getOverruns()).append('\n');
+		sb.append("snmp_pdus_sent_total{").append(device).append("} ").append(s.getPdusSent()).append('\n');
+		sb.append("snmp_pdus_received_total{").append(device).append("} ").append(s.getPdusReceived()).append('\n');
+		sb.append("snmp_retries_total{").append(device).append("} ").append(s.getRetries()).append('\n');
+		sb.append("snmp_request_timeouts_total{").append(device).append("} ").append(s.getRequestTimeouts()).append('\n');
+		sb.append("snmp_walk_timeouts_total{").append(device).append("} ").append(s.getWalkTimeouts()).append('\n');
+		sb.append("snmp_toobig_total{").append(device).append("} ").append(s.getTooBig()).append('\n');
+		sb.append("snmp_device_health{").append(device).append("} ").append(health.getState()).append('\n');
+		sb.append("snmp_device_probes_total{").append(device).append("} ").append(health.getProbes()).append('\n');
+		sb.append("snmp_device_skipped_total{").append(device).append("} ").append(health.getSkipped()).append('\n');
+	}
+
+	/**
+	 * @description health of a shared device, taken from the device that polls its agent
+	 */
+	private static void appendSharedHealth(String deviceId, String poller, DeviceHealth health, StringBuilder sb) {
+		sb.append("snmp_device_health{device=\"").append(escape(deviceId)).append("\",polled_by=\"").append(escape(poller))
+				.append("\"} ").append(health.getState()).append('\n');
+	}
+
+	private static String escape(String label) {
+		return label.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	/**
+	 * @description per transport counters : a transport whose listener is busy most of the time, whose kernel queue
+	 * 	stays filled or whose drops grow is the bottleneck (more transports or a larger session.rcvbuf.bytes)
+	 */
+	private static void appendTransportMetrics(SnmpSession session, StringBuilder sb) {
+		Map<Integer,long[]> kernel = PooledUdpTransport.kernelStats();
+		for (PooledUdpTransport t : session.getTransports()) {
+			String labels = "transport=\"" + t.getIndex() + "\",port=\"" + t.getPort() + "\"";
+			long[] k = kernel.get(t.getPort());
+			sb.append("snmp_transport_packets_sent_total{").append(labels).append("} ").append(t.getPacketsSent()).append('\n');
+			sb.append("snmp_transport_packets_received_total{").append(labels).append("} ").append(t.getPacketsReceived()).append('\n');
+			sb.append("snmp_transport_bytes_sent_total{").append(labels).append("} ").append(t.getBytesSent()).append('\n');
+			sb.append("snmp_transport_bytes_received_total{").append(labels).append("} ").append(t.getBytesReceived()).append('\n');
+			sb.append("snmp_transport_send_errors_total{").append(labels).append("} ").append(t.getSendErrors()).append('\n');
+			sb.append("snmp_transport_listener_busy_ms_total{").append(labels).append("} ").append(t.getBusyNanos() / 1000000).append('\n');
+			sb.append("snmp_transport_pending_requests{").append(labels).append("} ").append(session.getPending(t.getIndex())).append('\n');
+			sb.append("snmp_transport_receive_buffer_bytes{").append(labels).append("} ").append(t.getGrantedReceiveBufferSize()).append('\n');
+			if (k != null) {
+				sb.append("snmp_transport_receive_queue_bytes{").append(labels).append("} ").append(k[0]).append('\n');
+				sb.append("snmp_transport_drops_total{").append(labels).append("} ").append(k[1]).append('\n');
+			}
+		}
+	}
+
+	private static void appendHistogram(String name, String labels, PollStats.Histogram h, StringBuilder sb) {
+		long cumulative = 0;
+		for (int i=0; i<PollStats.Histogram.buckets; i++) {
+			cumulative += h.getBucket(i);
+			long le = PollStats.Histogram.upperBound(i);
+			sb.append(name).append("_bucket{").append(labels).append(",le=\"")
+					.append(le == Long.MAX_VALUE ? "+Inf" : String.valueOf(le)).append("\"} ").append(cumulative).append('\n');
+		}
+		sb.append(name).append("_sum{").append(labels).append("} ").append(h.getSum()).append('\n');
+		sb.append(name).append("_count{").append(labels).append("} ").append(h.getCount()).append('\n');
+	}
+
+	private static String query(HttpExchange exchange, String key) {
+		String query = exchange.getRequestURI().getQuery();
+		if (query == null) return null;
+		for (String param : query.split("&")) {
+			int eq = param.indexOf('=');
+			if (eq > 0 && param.substring(0, eq).equals(key)) return param.substring(eq + 1);
+		}
+		return null;
+	}
+
+	private static void respond(HttpExchange exchange, StringBuilder sb) throws IOException {
+		byte[] body = sb.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+}
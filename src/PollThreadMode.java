@@ -0,0 +1,107 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @description How SnmpWorker tasks get their threads.
+ * 	PLATFORM : fixed pool of poller.concurrency platform threads
+ * 	VIRTUAL  : one virtual thread per device (JDK 21+), the blocking worker code stays as it is
+ *
+ * 	The project still compiles for Java 8, so the virtual thread API is looked up reflectively.
+ * 	On an older runtime VIRTUAL falls back to PLATFORM with a warning.
+ */
+public enum PollThreadMode {
+
+	PLATFORM,
+	VIRTUAL;
+
+	/**
+	 * @description parse "platform" / "virtual" (case insensitive), anything else is PLATFORM
+	 * @param value
+	 * @return {PollThreadMode}
+	 */
+	public static PollThreadMode fromString(String value) {
+		if (value != null && "virtual".equalsIgnoreCase(value.trim())) {
+			return VIRTUAL;
+		}
+		return PLATFORM;
+	}
+
+	public static PollThreadMode fromConfig() {
+		return fromString(PollerConfig.getInstance().getString("poller.thread.mode", "platform"));
+	}
+
+	/**
+	 * @description mode that will really be used on this runtime
+	 * @return {PollThreadMode}
+	 */
+	public PollThreadMode effective() {
+		if (this == VIRTUAL && virtualThreadFactory("probe-") == null) {
+			System.err.println("virtual threads are not available on java " + System.getProperty("java.version")
+					+ ", poller.thread.mode falls back to platform");
+			return PLATFORM;
+		}
+		return this;
+	}
+
+	/**
+	 * @description executor for device workers
+	 * @param concurrency pool size for PLATFORM, ignored for VIRTUAL
+	 * @return {ExecutorService}
+	 */
+	public ExecutorService newExecutor(int concurrency) {
+		if (this == VIRTUAL) {
+			ExecutorService es = newVirtualExecutor("snmp-vpoller-");
+			if (es != null) {
+				return es;
+			}
+		}
+		return Executors.newFixedThreadPool(Math.max(1, concurrency), new PlatformThreadFactory("snmp-poller-"));
+	}
+
+	private static ExecutorService newVirtualExecutor(String prefix) {
+		ThreadFactory factory = virtualThreadFactory(prefix);
+		if (factory == null) {
+			return null;
+		}
+		try {
+			Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) perTask.invoke(null, factory);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @description Thread.ofVirtual().name(prefix, 1).factory(), or null before JDK 21
+	 */
+	private static ThreadFactory virtualThreadFactory(String prefix) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @description named platform threads, so a thread dump shows which pool they belong to
+	 */
+	private static final class PlatformThreadFactory implements ThreadFactory {
+		private final AtomicInteger seq = new AtomicInteger();
+		private final String prefix;
+
+		PlatformThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r, prefix + seq.incrementAndGet());
+		}
+	}
+}
@@ -0,0 +1,230 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * @description Benchmarks of the poller hot paths, time and allocation per operation.
+ * 	- ingest  : walk responses added to an SnmpTable (SnmpWorker.ingest, the resultProcess path)
+ * 	- extract : metric extraction of one poll (SnmpWorker.extractMetrics, the thenAccept path)
+ * 	- decode  : SnmpWorker.getDecodeStr of a hex encoded euc-kr label and of a plain label
+ * 	- poll    : one SnmpWorker poll end to end against an agent (-Dbench.agent=<ip>), every group due on every poll
+ * 	storage, cpu and process tables of bench.rows rows (default 10,1000,10000).
+ *
+ * 	Each benchmark runs bench.warmup.seconds, then bench.measure.seconds. Allocation is read from the
+ * 	thread allocation counters (all threads for poll, the snmp listener allocates most of it).
+ * 	usage : PollerBenchmark [name regex]
+ */
+public class PollerBenchmark {
+
+	private interface Op {
+		Object run() throws Exception;
+	}
+
+	private final static String storageEntry = ".1.3.6.1.2.1.25.2.3.1";
+	private final static String hrSWRunName = ".1.3.6.1.2.1.25.4.2.1.2";
+	private final static String hrSWRunPerfMem = ".1.3.6.1.2.1.25.5.1.1.2";
+	private final static String hrProcessorLoad = ".1.3.6.1.2.1.25.3.3.1.2";
+	private final static int varbindsPerResponse = 50;
+
+	private static volatile int blackhole;
+
+	private final long warmupMills = PollerConfig.getInstance().getLong("bench.warmup.seconds", 2) * 1000;
+	private final long measureMills = PollerConfig.getInstance().getLong("bench.measure.seconds", 3) * 1000;
+	private final Pattern filter;
+
+	public static void main(String[] args) throws Exception {
+		PollerBenchmark bench = new PollerBenchmark(args.length > 0 ? args[0] : ".*");
+		System.out.println(String.format("%-28s %10s %12s %12s %12s %6s", "benchmark", "ops", "ns/op", "ops/s", "bytes/op", "gc"));
+		for (String rows : PollerConfig.getInstance().getString("bench.rows", "10,1000,10000").split(",")) {
+			bench.tables(Integer.parseInt(rows.trim()));
+		}
+		bench.decode();
+		String agent = PollerConfig.getInstance().getString("bench.agent", null);
+		if (agent != null) {
+			bench.poll(agent);
+		}
+		SnmpPoller.shutdown();
+		System.exit(0);
+	}
+
+	private PollerBenchmark(String filter) {
+		this.filter = Pattern.compile(filter);
+	}
+
+	private void tables(final int rows) throws Exception {
+		final List<VariableBinding[]> storage = responses(storageTable(rows));
+		final List<VariableBinding[]> cpu = responses(column(hrProcessorLoad, rows, i -> new Integer32(i % 100)));
+		final List<VariableBinding[]> process = responses(processTable(rows));
+
+		run("ingest storage " + rows, () -> ingest(storage), false);
+		run("ingest cpu " + rows, () -> ingest(cpu), false);
+		run("ingest process " + rows, () -> ingest(process), false);
+
+		// results in oids order : storage, hrSWRunName, hrSWRunPerfMem, hrProcessorLoad
+		final SnmpTable processResult = ingest(process);
+		final List<SnmpTable> result = Arrays.asList(ingest(storage), processResult, processResult, ingest(cpu));
+		final MetricDefinitions.Plan plan = MetricDefinitions.getInstance().plan("bench");
+		run("extract " + rows, () -> {
+			Map<String,Object> calc = new HashMap<String,Object>();
+			Map<String,Object> calcDisk = new HashMap<String,Object>();
+			List<Map<String,Object>> procList = new ArrayList<Map<String,Object>>();
+			SnmpWorker.extractMetrics(plan, result, calc, calcDisk, procList);
+			return calc.size() + calcDisk.size() + procList.size();
+		}, false);
+	}
+
+	private void decode() throws Exception {
+		run("decode encoded", () -> SnmpWorker.getDecodeStr("c7:cf:b5:e5:b5:f0:bd:ba:c5:a9:20:43:3a:5c"), false);
+		run("decode plain", () -> SnmpWorker.getDecodeStr("/var/lib/docker"), false);
+	}
+
+	/**
+	 * @description polls of one device, every group is due on every poll (group intervals 0)
+	 * @param agent ip of the agent
+	 */
+	private void poll(String agent) throws Exception {
+		for (OidGroup group : OidGroup.values()) {
+			System.setProperty("device.bench-agent.group." + group.name().toLowerCase() + ".interval.seconds", "0");
+		}
+		final Map<String,Object> hm = new HashMap<String,Object>();
+		hm.put("deviceid", "bench-agent");
+		hm.put("ip", agent);
+		hm.put("community", PollerConfig.getInstance().getString("bench.agent.community", "public"));
+		hm.put("version", PollerConfig.getInstance().getString("bench.agent.version", "v2c"));
+		hm.put("password", PollerConfig.getInstance().getString("bench.agent.password", ""));
+
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				// worker result prints are left out of the measurement
+			}
+		}));
+		try {
+			run("poll " + agent, () -> new SnmpWorker(hm, SnmpSession.getInstance().getSnmp("bench-agent")).call(), true, out);
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	private static SnmpTable ingest(List<VariableBinding[]> responses) {
+		SnmpTable table = new SnmpTable();
+		for (VariableBinding[] response : responses) {
+			SnmpWorker.ingest(table, response);
+		}
+		return table;
+	}
+
+	private void run(String name, Op op, boolean allThreads) throws Exception {
+		run(name, op, allThreads, System.out);
+	}
+
+	private void run(String name, Op op, boolean allThreads, PrintStream out) throws Exception {
+		if (!filter.matcher(name).find()) return;
+
+		long end = System.currentTimeMillis() + warmupMills;
+		while (System.currentTimeMillis() < end) {
+			blackhole ^= System.identityHashCode(op.run());
+		}
+
+		long gc = gcCount();
+		long allocated = allocatedBytes(allThreads);
+		long ops = 0;
+		long start = System.nanoTime();
+		end = System.currentTimeMillis() + measureMills;
+		do {
+			blackhole ^= System.identityHashCode(op.run());
+			ops++;
+		} while (System.currentTimeMillis() < end);
+		long elapsed = System.nanoTime() - start;
+		allocated = allocatedBytes(allThreads) - allocated;
+
+		out.println(String.format("%-28s %10d %12d %12.1f %12d %6d", name, ops, elapsed / ops, ops * 1e9 / elapsed,
+				allocated < 0 ? -1 : allocated / ops, gcCount() - gc));
+	}
+
+	/**
+	 * @return {long} bytes allocated by this thread (or all live threads), -1 if the jvm does not count them
+	 */
+	private static long allocatedBytes(boolean allThreads) {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (!(mx instanceof com.sun.management.ThreadMXBean)) return -1;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mx;
+		if (!allThreads) {
+			return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		long sum = 0;
+		for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			if (bytes > 0) sum += bytes;
+		}
+		return sum;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * @description split varbinds into responses of varbindsPerResponse, like GETBULK responses of a walk
+	 */
+	private static List<VariableBinding[]> responses(List<VariableBinding> vbs) {
+		List<VariableBinding[]> responses = new ArrayList<>();
+		for (int from=0; from<vbs.size(); from+=varbindsPerResponse) {
+			List<VariableBinding> part = vbs.subList(from, Math.min(vbs.size(), from + varbindsPerResponse));
+			responses.add(part.toArray(new VariableBinding[part.size()]));
+		}
+		return responses;
+	}
+
+	private interface Value {
+		org.snmp4j.smi.Variable of(int row);
+	}
+
+	private static List<VariableBinding> column(String column, int rows, Value value) {
+		List<VariableBinding> vbs = new ArrayList<>(rows);
+		OID oid = new OID(column);
+		for (int row=1; row<=rows; row++) {
+			vbs.add(new VariableBinding(new OID(oid).append(row), value.of(row)));
+		}
+		return vbs;
+	}
+
+	/**
+	 * @description hrStorageEntry walked column by column : memory rows first, then disks
+	 */
+	private static List<VariableBinding> storageTable(int rows) {
+		final String[] memory = {"Physical Memory", "Virtual Memory", "Memory buffers", "Cached memory", "Swap space"};
+		List<VariableBinding> vbs = new ArrayList<>();
+		vbs.addAll(column(storageEntry + ".1", rows, row -> new Integer32(row)));
+		vbs.addAll(column(storageEntry + ".2", rows, row -> new OID(row <= memory.length ? ".1.3.6.1.2.1.25.2.1.2" : ".1.3.6.1.2.1.25.2.1.4")));
+		vbs.addAll(column(storageEntry + ".3", rows, row -> new OctetString(row <= memory.length ? memory[row - 1] : "/disk" + row)));
+		vbs.addAll(column(storageEntry + ".4", rows, row -> new Integer32(row <= memory.length ? 1024 : 4096)));
+		vbs.addAll(column(storageEntry + ".5", rows, row -> new Integer32(1000000 + row)));
+		vbs.addAll(column(storageEntry + ".6", rows, row -> new Integer32(250000 + row * 7)));
+		return vbs;
+	}
+
+	private static List<VariableBinding> processTable(int rows) {
+		List<VariableBinding> vbs = new ArrayList<>();
+		vbs.addAll(column(hrSWRunName, rows, row -> new OctetString("proc" + row)));
+		vbs.addAll(column(hrSWRunPerfMem, rows, row -> new Integer32(1024 + row)));
+		return vbs;
+	}
+}
@@ -0,0 +1,76 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * @description Poller settings from config/poller.properties.
+ * 	A JVM system property with the same key (-Dkey=value) overrides the file.
+ */
+public class PollerConfig {
+
+	private static PollerConfig config = null;
+
+	private final Properties props = new Properties();
+
+	public static synchronized PollerConfig getInstance() {
+		if (config == null) {
+			config = new PollerConfig();
+		}
+		return config;
+	}
+
+	private PollerConfig() {
+		final String appHome = System.getProperty("user.dir");
+		final String configFile = String.join(File.separator, appHome, "config", "poller.properties");
+		File file = new File(configFile);
+		if (file.exists()) {
+			try (InputStream in = new FileInputStream(file)) {
+				props.load(in);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public String getString(String key, String defaultValue) {
+		String value = System.getProperty(key, props.getProperty(key));
+		return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+	}
+
+	public int getInt(String key, int defaultValue) {
+		try {
+			return Integer.parseInt(getString(key, String.valueOf(defaultValue)));
+		} catch (NumberFormatException e) {
+			System.err.println("invalid int value, key:" + key + ", use default " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	public long getLong(String key, long defaultValue) {
+		try {
+			return Long.parseLong(getString(key, String.valueOf(defaultValue)));
+		} catch (NumberFormatException e) {
+			System.err.println("invalid long value, key:" + key + ", use default " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	public boolean getBoolean(String key, boolean defaultValue) {
+		return Boolean.parseBoolean(getString(key, String.valueOf(defaultValue)));
+	}
+
+	/**
+	 * @param prefix
+	 * @return {boolean} true if a key of the file or a system property starts with the prefix
+	 */
+	public boolean hasKeys(String prefix) {
+		for (String key : props.stringPropertyNames()) {
+			if (key.startsWith(prefix)) return true;
+		}
+		for (String key : System.getProperties().stringPropertyNames()) {
+			if (key.startsWith(prefix)) return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,193 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.snmp4j.TransportStateReference;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+/**
+ * @description One UDP socket of the SnmpSession pool, with its own listener thread and socket buffers.
+ * 	Counts what goes through it : packets and bytes each way, send errors and the time its listener thread
+ * 	spends processing responses (a listener busy all the time cannot keep up, the kernel queue grows and drops).
+ * 	Kernel receive queue and drops of the socket come from /proc/net/udp and /proc/net/udp6 (linux only, -1 elsewhere).
+ */
+public class PooledUdpTransport extends DefaultUdpTransportMapping {
+
+	private final int index;
+	private final int sendBufferSize;
+
+	private final AtomicLong packetsSent = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong sendErrors = new AtomicLong();
+	private final AtomicLong packetsReceived = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	/**
+	 * only written by the listener thread
+	 * */
+	private volatile long busyNanos = 0;
+
+	/**
+	 * @param index position in the pool, part of the listener thread name
+	 * @param receiveBufferSize SO_RCVBUF, 0 : OS default
+	 * @param sendBufferSize SO_SNDBUF, 0 : OS default
+	 * @throws IOException if no local port can be bound
+	 */
+	public PooledUdpTransport(int index, int receiveBufferSize, int sendBufferSize) throws IOException {
+		super(new UdpAddress("0.0.0.0/0"));
+		this.index = index;
+		this.sendBufferSize = sendBufferSize;
+		if (receiveBufferSize > 0) setReceiveBufferSize(receiveBufferSize);
+		if (sendBufferSize > 0 && socket != null) socket.setSendBufferSize(sendBufferSize);
+		setThreadName("snmp-transport-" + index);
+	}
+
+	@Override
+	public void sendMessage(UdpAddress targetAddress, byte[] message, TransportStateReference tmStateReference) throws IOException {
+		try {
+			super.sendMessage(targetAddress, message, tmStateReference);
+		} catch (IOException e) {
+			sendErrors.incrementAndGet();
+			throw e;
+		}
+		packetsSent.incrementAndGet();
+		bytesSent.addAndGet(message.length);
+	}
+
+	@Override
+	protected void fireProcessMessage(Address address, ByteBuffer buf, TransportStateReference tmStateReference) {
+		packetsReceived.incrementAndGet();
+		bytesReceived.addAndGet(buf.remaining());
+		long start = System.nanoTime();
+		try {
+			super.fireProcessMessage(address, buf, tmStateReference);
+		} finally {
+			busyNanos += System.nanoTime() - start;
+		}
+	}
+
+	@Override
+	protected DatagramSocket renewSocketAfterException(SocketException exception, DatagramSocket failedSocket) throws SocketException {
+		DatagramSocket renewed = super.renewSocketAfterException(exception, failedSocket);
+		if (renewed != null && sendBufferSize > 0) renewed.setSendBufferSize(sendBufferSize);
+		return renewed;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return {int} local port, 0 once closed
+	 */
+	public int getPort() {
+		DatagramSocket s = socket;
+		return s == null ? 0 : s.getLocalPort();
+	}
+
+	/**
+	 * @return {int} SO_RCVBUF the kernel granted (capped by net.core.rmem_max), -1 if closed
+	 */
+	public int getGrantedReceiveBufferSize() {
+		DatagramSocket s = socket;
+		try {
+			return s == null ? -1 : s.getReceiveBufferSize();
+		} catch (SocketException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return {int} SO_SNDBUF the kernel granted (capped by net.core.wmem_max), -1 if closed
+	 */
+	public int getGrantedSendBufferSize() {
+		DatagramSocket s = socket;
+		try {
+			return s == null ? -1 : s.getSendBufferSize();
+		} catch (SocketException e) {
+			return -1;
+		}
+	}
+
+	public long getPacketsSent() {
+		return packetsSent.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public long getSendErrors() {
+		return sendErrors.get();
+	}
+
+	public long getPacketsReceived() {
+		return packetsReceived.get();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	public long getBusyNanos() {
+		return busyNanos;
+	}
+
+	/**
+	 * @description kernel counters of all udp sockets, read once for every transport of a report
+	 * @return {Map} local port -> {receive queue bytes, drops}, empty if /proc/net/udp is not there
+	 */
+	public static Map<Integer,long[]> kernelStats() {
+		Map<Integer,long[]> stats = new HashMap<>();
+		readKernelStats("/proc/net/udp", stats);
+		readKernelStats("/proc/net/udp6", stats);
+		return stats;
+	}
+
+	/**
+	 * @description sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ref pointer drops
+	 */
+	private static void readKernelStats(String file, Map<Integer,long[]> stats) {
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			String line = in.readLine(); // header
+			while ((line = in.readLine()) != null) {
+				String[] f = line.trim().split("\\s+");
+				if (f.length < 13) continue;
+				int colon = f[1].lastIndexOf(':');
+				int queue = f[4].indexOf(':');
+				if (colon < 0 || queue < 0) continue;
+				try {
+					int port = Integer.parseInt(f[1].substring(colon + 1), 16);
+					long rxQueue = Long.parseLong(f[4].substring(queue + 1), 16);
+					long drops = Long.parseLong(f[f.length - 1]);
+					stats.put(port, new long[] { rxQueue, drops });
+				} catch (NumberFormatException e) {
+					// other layout
+				}
+			}
+		} catch (IOException e) {
+			// not linux
+		}
+	}
+
+	/**
+	 * @param kernel kernelStats()
+	 * @param pending requests waiting for a response on this transport
+	 * @return {String} one report line
+	 */
+	public String report(Map<Integer,long[]> kernel, int pending) {
+		long[] k = kernel.get(getPort());
+		return "transport " + index + " port:" + getPort() + ", sent:" + getPacketsSent() + ", received:" + getPacketsReceived()
+				+ ", send errors:" + getSendErrors() + ", pending:" + pending + ", listener busy:" + busyNanos / 1000000 + "ms"
+				+ ", rx queue:" + (k == null ? -1 : k[0]) + ", drops:" + (k == null ? -1 : k[1])
+				+ ", rcvbuf:" + getGrantedReceiveBufferSize() + ", sndbuf:" + getGrantedSendBufferSize();
+	}
+}
@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.snmp4j.smi.OID;
+
+/**
+ * @description Known processes of one device : hrSWRunIndex -> hrSWRunName, kept in DeviceState.
+ * 	In delta mode only hrSWRunPerfMem is walked every poll. Its row indexes are the running processes,
+ * 	so new and exited processes fall out of comparing them with the known indexes, and only the names
+ * 	of new indexes have to be fetched (GET). Exited indexes are forgotten.
+ *
+ * 	A pid that exits and is reused between two polls keeps the old name, so the names are walked
+ * 	completely again every poller.process.refresh.polls delta polls.
+ */
+public class ProcessTable {
+
+	public final static String hrSWRunName = ".1.3.6.1.2.1.25.4.2.1.2";
+	public final static String hrSWRunPerfMem = ".1.3.6.1.2.1.25.5.1.1.2";
+	public final static OID nameColumn = new OID(hrSWRunName);
+	public final static OID memColumn = new OID(hrSWRunPerfMem);
+
+	private final static int refreshPolls = PollerConfig.getInstance().getInt("poller.process.refresh.polls", 30);
+
+	private final Map<Integer,String> names = new HashMap<>();
+	private int deltaPolls = 0;
+
+	/**
+	 * @return {boolean} true if names are unknown or the periodic full walk is due
+	 */
+	public synchronized boolean needsFullWalk() {
+		return names.isEmpty() || deltaPolls >= refreshPolls;
+	}
+
+	/**
+	 * @description replace the known names with a full hrSWRunName walk
+	 * @param nameWalk walk result
+	 */
+	public synchronized void replace(SnmpTable nameWalk) {
+		SnmpTable.Column walked = nameWalk == null ? null : nameWalk.column(nameColumn);
+		if (walked == null || walked.size() == 0) return;
+		names.clear();
+		for (int i=0; i<walked.size(); i++) {
+			names.put(walked.row(i), walked.getText(i));
+		}
+		deltaPolls = 0;
+	}
+
+	/**
+	 * @description compare the running processes with the known ones, forget exited processes
+	 * @param memWalk hrSWRunPerfMem walk result
+	 * @return {List} indexes whose name is not known yet
+	 */
+	public synchronized List<Integer> update(SnmpTable memWalk) {
+		deltaPolls++;
+		SnmpTable.Column mem = memWalk.column(memColumn);
+		List<Integer> added = new ArrayList<>();
+		if (mem == null) return added;
+		Map<Integer,String> running = new HashMap<>(mem.size() * 2);
+		for (int i=0; i<mem.size(); i++) {
+			String name = names.get(mem.row(i));
+			if (name == null) {
+				added.add(mem.row(i));
+			} else {
+				running.put(mem.row(i), name);
+			}
+		}
+		names.keySet().retainAll(running.keySet());
+		return added;
+	}
+
+	/**
+	 * @param index
+	 * @param name fetched name of a new process
+	 */
+	public synchronized void add(int index, String name) {
+		names.put(index, name);
+	}
+
+	/**
+	 * @description names of the running processes, as a hrSWRunName walk would return them
+	 * @param memWalk hrSWRunPerfMem walk result
+	 * @return {SnmpTable}
+	 */
+	public synchronized SnmpTable namesOf(SnmpTable memWalk) {
+		SnmpTable result = new SnmpTable();
+		SnmpTable.Column mem = memWalk.column(memColumn);
+		for (int i=0; mem != null && i<mem.size(); i++) {
+			String name = names.get(mem.row(i));
+			if (name != null) {
+				result.addText(nameColumn, mem.row(i), name);
+			}
+		}
+		return result;
+	}
+
+	public synchronized int size() {
+		return names.size();
+	}
+}
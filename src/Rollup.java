@@ -0,0 +1,280 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @description Streaming rollup of the published poll values over fixed windows (rollup.windows, e.g. 1m,5m,1h).
+ * 	Every completed device poll adds its values, per device / metric / window only the open window is kept
+ * 	(start, min, max, sum, count, last) in primitive arrays. A closed window is published to the metric sink as
+ * 	<metric>.<window>.min|max|avg|last|count at the window start time.
+ *
+ * 	- windows are aligned to the epoch, a window closes when a value of a later window arrives, or when
+ * 	  rollup.grace.seconds have passed after its end without one (missed or timed out polls, checked by a sweeper)
+ * 	- a value older than the open window, or of a window already closed, is late : counted and left out
+ * 	- a window without any value is not published, count tells how many polls a window has
+ * 	- only the metrics of rollup.metrics are rolled up (names, or prefixes ending with *)
+ */
+public class Rollup {
+
+	private final static String[] stats = {"min", "max", "avg", "last", "count"};
+
+	private static Rollup rollup = null;
+	private static boolean disabled = false;
+
+	private final long[] windowMills;
+	private final String[] windowNames;
+	private final long graceMills;
+	private final String[] metrics;
+	private final Map<String,Windows> devices = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService sweeper;
+
+	private final AtomicLong closed = new AtomicLong();
+	private final AtomicLong swept = new AtomicLong();
+	private final AtomicLong late = new AtomicLong();
+
+	/**
+	 * @return {Rollup} the rollup of rollup.windows, null if no window is configured or there is no metric sink
+	 */
+	public static synchronized Rollup getInstance() {
+		if (rollup == null && !disabled) {
+			PollerConfig config = PollerConfig.getInstance();
+			String windows = config.getString("rollup.windows", "").trim();
+			if (windows.isEmpty() || MetricSink.getInstance() == null) {
+				return null;
+			}
+			List<String> names = new ArrayList<>();
+			for (String window : windows.split(",")) {
+				if (parseWindow(window.trim()) > 0) {
+					names.add(window.trim());
+				} else {
+					System.err.println("unknown rollup window : " + window);
+				}
+			}
+			if (names.isEmpty()) {
+				disabled = true;
+				return null;
+			}
+			rollup = new Rollup(names, config.getLong("rollup.grace.seconds", 30) * 1000,
+					config.getString("rollup.metrics", "CPULOAD,MEMORY,SWAP,DISK@*").split(","));
+		}
+		return rollup;
+	}
+
+	/**
+	 * @description stop the sweeper, open windows are not published
+	 */
+	public static synchronized void shutdown() {
+		if (rollup != null) {
+			rollup.sweeper.shutdownNow();
+			System.out.println("rollup stopped, closed:" + rollup.closed + ", closed by sweeper:" + rollup.swept + ", late:" + rollup.late);
+			rollup = null;
+		}
+	}
+
+	private Rollup(List<String> names, long graceMills, String[] metrics) {
+		this.windowNames = names.toArray(new String[0]);
+		this.windowMills = new long[windowNames.length];
+		long shortest = Long.MAX_VALUE;
+		for (int w=0; w<windowMills.length; w++) {
+			windowMills[w] = parseWindow(windowNames[w]);
+			shortest = Math.min(shortest, windowMills[w]);
+		}
+		this.graceMills = graceMills;
+		this.metrics = new String[metrics.length];
+		for (int i=0; i<metrics.length; i++) {
+			this.metrics[i] = metrics[i].trim();
+		}
+
+		this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "rollup-sweeper");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, Math.min(shortest, 10000));
+		sweeper.scheduleAtFixedRate(this::sweep, period, period, TimeUnit.MILLISECONDS);
+		System.out.println("rollup started, windows:" + names + ", grace:" + graceMills + "ms, metrics:" + Arrays.toString(this.metrics));
+	}
+
+	/**
+	 * @param window <n>s | <n>m | <n>h
+	 * @return {long} window length, 0 if it cannot be parsed
+	 */
+	static long parseWindow(String window) {
+		try {
+			long n = Long.parseLong(window.substring(0, window.length() - 1));
+			switch (window.charAt(window.length() - 1)) {
+			case 's' : return n * 1000;
+			case 'm' : return n * 60000;
+			case 'h' : return n * 3600000;
+			default : return 0;
+			}
+		} catch (RuntimeException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * @description add one value of a completed poll, publishes the windows it closes
+	 * @param sink
+	 * @param deviceId
+	 * @param metric
+	 * @param timeMills poll time
+	 * @param value
+	 */
+	public void add(MetricSink sink, String deviceId, String metric, long timeMills, double value) {
+		if (!rolledUp(metric)) return;
+		devices.computeIfAbsent(deviceId, Windows::new).add(sink, metric, timeMills, value);
+	}
+
+	/**
+	 * @description drop the windows of a device that left the inventory, its open windows are published first
+	 * @param deviceId
+	 */
+	public void remove(String deviceId) {
+		Windows windows = devices.remove(deviceId);
+		MetricSink sink = MetricSink.getInstance();
+		if (windows != null && sink != null) {
+			windows.flush(sink);
+		}
+	}
+
+	private boolean rolledUp(String metric) {
+		for (String m : metrics) {
+			if (m.endsWith("*") ? metric.startsWith(m.substring(0, m.length() - 1)) : metric.equals(m)) return true;
+		}
+		return false;
+	}
+
+	private void sweep() {
+		try {
+			MetricSink sink = MetricSink.getInstance();
+			if (sink == null) return;
+			long now = System.currentTimeMillis();
+			for (Windows windows : devices.values()) {
+				windows.sweep(sink, now);
+			}
+		} catch (Exception e) {
+			System.err.println("rollup sweep exception : " + e);
+		}
+	}
+
+	/**
+	 * @description open windows of one device, cell = metric slot * windows + window
+	 */
+	private final class Windows {
+		private final String deviceId;
+		private final Map<String,Integer> slots = new HashMap<>();
+		private String[] names = new String[8];
+		private long[] start = new long[8 * windowMills.length];
+		private long[] closedStart = new long[8 * windowMills.length];
+		private long[] lastTime = new long[8 * windowMills.length];
+		private double[] min = new double[8 * windowMills.length];
+		private double[] max = new double[8 * windowMills.length];
+		private double[] sum = new double[8 * windowMills.length];
+		private double[] last = new double[8 * windowMills.length];
+		private int[] count = new int[8 * windowMills.length];
+
+		Windows(String deviceId) {
+			this.deviceId = deviceId;
+			Arrays.fill(closedStart, Long.MIN_VALUE);
+		}
+
+		synchronized void add(MetricSink sink, String metric, long timeMills, double value) {
+			int slot = slotOf(metric);
+			for (int w=0; w<windowMills.length; w++) {
+				int cell = slot * windowMills.length + w;
+				long windowStart = timeMills - Math.floorMod(timeMills, windowMills[w]);
+				if (count[cell] > 0 && windowStart > start[cell]) {
+					close(sink, slot, w, cell);
+					closed.incrementAndGet();
+				}
+				if ((count[cell] > 0 && windowStart < start[cell]) || windowStart <= closedStart[cell]) {
+					late.incrementAndGet();
+					continue;
+				}
+				if (count[cell] == 0) {
+					start[cell] = windowStart;
+					min[cell] = value;
+					max[cell] = value;
+					sum[cell] = 0;
+					lastTime[cell] = Long.MIN_VALUE;
+				}
+				if (value < min[cell]) min[cell] = value;
+				if (value > max[cell]) max[cell] = value;
+				sum[cell] += value;
+				count[cell]++;
+				if (timeMills >= lastTime[cell]) {
+					lastTime[cell] = timeMills;
+					last[cell] = value;
+				}
+			}
+		}
+
+		synchronized void sweep(MetricSink sink, long now) {
+			for (int slot=0; slot<slots.size(); slot++) {
+				for (int w=0; w<windowMills.length; w++) {
+					int cell = slot * windowMills.length + w;
+					if (count[cell] > 0 && now >= start[cell] + windowMills[w] + graceMills) {
+						close(sink, slot, w, cell);
+						swept.incrementAndGet();
+					}
+				}
+			}
+		}
+
+		synchronized void flush(MetricSink sink) {
+			for (int slot=0; slot<slots.size(); slot++) {
+				for (int w=0; w<windowMills.length; w++) {
+					int cell = slot * windowMills.length + w;
+					if (count[cell] > 0) {
+						close(sink, slot, w, cell);
+						closed.incrementAndGet();
+					}
+				}
+			}
+		}
+
+		private void close(MetricSink sink, int slot, int w, int cell) {
+			String prefix = names[slot] + "." + windowNames[w] + ".";
+			double[] values = {min[cell], max[cell], sum[cell] / count[cell], last[cell], count[cell]};
+			for (int i=0; i<stats.length; i++) {
+				sink.publish(deviceId, prefix + stats[i], start[cell], values[i]);
+			}
+			closedStart[cell] = start[cell];
+			count[cell] = 0;
+		}
+
+		private int slotOf(String metric) {
+			Integer slot = slots.get(metric);
+			if (slot == null) {
+				slot = slots.size();
+				if (slot == names.length) grow();
+				names[slot] = metric;
+				slots.put(metric, slot);
+			}
+			return slot;
+		}
+
+		private void grow() {
+			int cells = names.length * 2 * windowMills.length;
+			names = Arrays.copyOf(names, names.length * 2);
+			start = Arrays.copyOf(start, cells);
+			int from = closedStart.length;
+			closedStart = Arrays.copyOf(closedStart, cells);
+			Arrays.fill(closedStart, from, cells, Long.MIN_VALUE);
+			lastTime = Arrays.copyOf(lastTime, cells);
+			min = Arrays.copyOf(min, cells);
+			max = Arrays.copyOf(max, cells);
+			sum = Arrays.copyOf(sum, cells);
+			last = Arrays.copyOf(last, cells);
+			count = Arrays.copyOf(count, cells);
+		}
+	}
+}
@@ -1,100 +1,125 @@
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.TimeUnit;
-
-import org.quartz.Job;
-import org.quartz.JobExecutionContext;
-import org.quartz.JobExecutionException;
-
-public class SnmpPoller implements Job {
-
-	private final static int threadPoolSize = 10;
-
-	@Override
-	public void execute(JobExecutionContext arg0) throws JobExecutionException {
-		executeCall();
-	}
-	
-	public void executeCall() {
-		System.out.println("Job Executed [" + new Date(System.currentTimeMillis()) + "]"
-				+ "--------------------------------------------------------------------------------");
-		List<Map<String,Object>> servers = getServersFromConfig();
-
-		for (Map<String, Object> map : servers) {
-			snmpPoller(map);
-		}
-	}
-
-	private void snmpPoller(final Map<String,Object> map) {
-		SnmpWorker sw = new SnmpWorker(map);
-		ExecutorService es = Executors.newFixedThreadPool(threadPoolSize);
-
-		@SuppressWarnings("unchecked")
-		FutureTask<Boolean> future = new FutureTask<Boolean>(sw) {
-			@Override
-			protected void done() {
-				try {
-					boolean callSuccess = ((Boolean) get()).booleanValue();
-					// System.out.println("future task callSuccess : "+ callSuccess + ", deviceid : " + map.get("deviceid"));
-				} catch (InterruptedException e) {
-					System.out.println("[InterruptedException] " + e.getMessage());
-					Thread.currentThread().interrupt();
-				} catch (ExecutionException e) {
-					System.out.println("[ExecutionException] " + e.getMessage());
-				}
-			}
-		};
-
-		es.execute(future);
-		es.shutdown();
-
-		try {
-			if (!es.awaitTermination(29, TimeUnit.SECONDS)) {
-				es.shutdownNow();
-			}
-		} catch (InterruptedException ex) {
-			es.shutdownNow();
-			Thread.currentThread().interrupt();
-		}
-	}
-
-	private List<Map<String,Object>> getServersFromConfig() {
-		List<Map<String,Object>> servers = new ArrayList<Map<String,Object>>();
-
-		final String appHome = System.getProperty("user.dir");
-		final String configFile = String.join(File.separator, appHome, "config", "servers.txt");
-		File file = new File(configFile); 
-		if(file.exists()) {
-			try (BufferedReader inFile = new BufferedReader(new FileReader(file)); ) {
-				String sLine = null; 
-				while( (sLine = inFile.readLine()) != null ) {
-					// System.out.println(sLine);
-					if ( sLine.startsWith("#") ) continue;
-					String[] arr = sLine.split("\\,");
-					Map<String,Object> hm = new HashMap<>();
-					hm.put("deviceid", arr[0]);
-					hm.put("ip", arr[1]);
-					hm.put("community", arr[2]);
-					hm.put("version", arr[3]);
-					hm.put("password", arr[4]);
-					servers.add(hm);
-				}
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
-		return servers;
-	}
-
-
-}
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+@DisallowConcurrentExecution
+public class SnmpPoller implements Job {
+
+	private static FleetDispatcher dispatcher = null;
+	private static boolean inventoryListening = false;
+
+	@Override
+	public void execute(JobExecutionContext arg0) throws JobExecutionException {
+		Date planned = arg0.getScheduledFireTime();
+		executeCall(planned == null ? System.currentTimeMillis() : planned.getTime());
+	}
+	
+	public void executeCall() {
+		executeCall(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param plannedMills planned fire time of the cycle, devices are owned at that time in cluster mode
+	 */
+	public void executeCall(long plannedMills) {
+		System.out.println("Job Executed [" + new Date(System.currentTimeMillis()) + "]"
+				+ "--------------------------------------------------------------------------------");
+		// the current inventory snapshot, a reload never blocks the cycle; one device per agent (poller.coalesce),
+		// in cluster mode only the devices this node owns
+		final DeviceInventory inventory = getInventory();
+		List<Device> servers = inventory.polledDevices();
+		if (ClusterNode.getInstance() != null) {
+			List<Device> owned = new ArrayList<>(servers.size());
+			for (Device device : servers) {
+				if (ClusterNode.owns(device.getDeviceId(), plannedMills)) owned.add(device);
+			}
+			servers = owned;
+		}
+
+		final SnmpSession session;
+		try {
+			session = SnmpSession.getInstance();
+		} catch (IOException e) {
+			System.err.println("snmp session open exception : " + e);
+			return;
+		}
+
+		getDispatcher().pollCycle(servers, session, inventory);
+	}
+
+	/**
+	 * @description poll one device through the fleet dispatcher without waiting (StaggeredScheduler)
+	 * @param server
+	 * @return {Future}
+	 * @throws IOException if the shared session cannot be opened
+	 */
+	static Future<Boolean> pollDevice(Device server) throws IOException {
+		return getDispatcher().submit(server, SnmpSession.getInstance(), getInventory());
+	}
+
+	/**
+	 * @description the device inventory; on a reload the state and the rollup windows of removed devices are dropped
+	 * 	(open windows are published first), a changed device keeps its state but is polled again right away if it was down (new address or credentials)
+	 */
+	static synchronized DeviceInventory getInventory() {
+		DeviceInventory inventory = DeviceInventory.getInstance();
+		if (!inventoryListening) {
+			inventory.addListener(diff -> {
+				Rollup rollup = Rollup.getInstance();
+				for (Device device : diff.getRemoved()) {
+					DeviceState.remove(device.getDeviceId());
+					if (rollup != null) rollup.remove(device.getDeviceId());
+				}
+				for (Device device : diff.getChanged()) {
+					DeviceState state = DeviceState.get(device.getDeviceId());
+					if (state != null) state.getHealth().reset();
+				}
+			});
+			inventoryListening = true;
+		}
+		return inventory;
+	}
+
+	/**
+	 * @description one dispatcher for the whole fleet, sized from config/poller.properties
+	 */
+	private static synchronized FleetDispatcher getDispatcher() {
+		if (dispatcher == null) {
+			PollerConfig config = PollerConfig.getInstance();
+			MetricDefinitions.getInstance(); // compile the metric definitions before the first device is polled
+			MetricSink.getInstance();
+			Rollup.getInstance();
+			PollThreadMode mode = PollThreadMode.fromConfig().effective();
+			dispatcher = new FleetDispatcher(mode,
+					mode == PollThreadMode.VIRTUAL ? config.getInt("poller.virtual.concurrency", 0) : config.getInt("poller.concurrency", 64),
+					TimeUnit.SECONDS.toMillis(config.getLong("poller.cycle.deadline.seconds", 9)));
+		}
+		return dispatcher;
+	}
+
+	/**
+	 * @description stop the dispatcher, flush the metric sink and release the shared snmp session, called when the scheduler stops
+	 */
+	public static synchronized void shutdown() {
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+			dispatcher = null;
+		}
+		Rollup.shutdown();
+		MetricSink.shutdown();
+		SnmpSession.close();
+		DeviceInventory.shutdown();
+		inventoryListening = false;
+		ClusterNode.shutdown();
+	}
+
+
+}
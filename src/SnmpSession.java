@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.snmp4j.Snmp;
+
+/**
+ * @description Long-lived SNMP session shared by every SnmpWorker.
+ * 	A pool of session.transports UDP transports (PooledUdpTransport), each with its own socket, listener thread,
+ * 	socket buffers (session.rcvbuf.bytes / session.sndbuf.bytes) and request-ID space. A device always uses the
+ * 	same transport, chosen by a stable hash of its deviceid, so its requests, engine ID and counters stay together.
+ * 	Created lazily on the first poll and closed once when the scheduler stops.
+ */
+public class SnmpSession {
+
+	private static volatile SnmpSession session = null;
+
+	private final Snmp[] pool;
+	private final PooledUdpTransport[] transports;
+
+	public static synchronized SnmpSession getInstance() throws IOException {
+		if (session == null) {
+			session = new SnmpSession();
+		}
+		return session;
+	}
+
+	/**
+	 * @return {SnmpSession} the open session, null if none was opened (reporting must not open one)
+	 */
+	public static SnmpSession getOpened() {
+		return session;
+	}
+
+	private SnmpSession() throws IOException {
+		PollerConfig config = PollerConfig.getInstance();
+		int size = Math.max(1, config.getInt("session.transports", 1));
+		int receiveBufferSize = config.getInt("session.rcvbuf.bytes", 0);
+		int sendBufferSize = config.getInt("session.sndbuf.bytes", 0);
+		pool = new Snmp[size];
+		transports = new PooledUdpTransport[size];
+		try {
+			for (int i=0; i<size; i++) {
+				transports[i] = new PooledUdpTransport(i, receiveBufferSize, sendBufferSize);
+				pool[i] = new Snmp(transports[i]);
+				USMFactory.getInstance().attach(pool[i]);
+				// snmp4j counters are global : the first session installs the listener for all
+				PollStatsExporter.install(pool[i]);
+				pool[i].listen();
+			}
+		} catch (IOException e) {
+			closePool();
+			throw e;
+		}
+		System.out.println("snmp session opened, transports:" + size + ", rcvbuf:" + transports[0].getGrantedReceiveBufferSize()
+				+ (receiveBufferSize > 0 ? " (asked " + receiveBufferSize + ")" : "") + ", sndbuf:" + transports[0].getGrantedSendBufferSize()
+				+ (sendBufferSize > 0 ? " (asked " + sendBufferSize + ")" : ""));
+	}
+
+	/**
+	 * @return {Snmp} the first transport's session
+	 */
+	public Snmp getSnmp() {
+		return pool[0];
+	}
+
+	/**
+	 * @param deviceId
+	 * @return {Snmp} the session of the transport the device is assigned to
+	 */
+	public Snmp getSnmp(String deviceId) {
+		return pool[index(deviceId, pool.length)];
+	}
+
+	/**
+	 * @return {List<PooledUdpTransport>} transports in pool order
+	 */
+	public List<PooledUdpTransport> getTransports() {
+		return Collections.unmodifiableList(Arrays.asList(transports));
+	}
+
+	/**
+	 * @param index
+	 * @return {int} requests of the transport still waiting for a response (or a timeout)
+	 */
+	public int getPending(int index) {
+		return pool[index].getPendingAsyncRequestCount();
+	}
+
+	/**
+	 * @description stable transport of a device, the same across restarts and pool instances of the same size
+	 */
+	static int index(String deviceId, int size) {
+		return size == 1 ? 0 : (int) Math.floorMod(ConsistentHashRing.hash(deviceId), (long) size);
+	}
+
+	private void closePool() {
+		for (int i=0; i<pool.length; i++) {
+			try {
+				if (pool[i] != null) {
+					pool[i].close();
+				} else if (transports[i] != null) {
+					transports[i].close();
+				}
+			} catch (IOException e) {
+				System.err.println("snmp close exception : " + e);
+			}
+		}
+	}
+
+	/**
+	 * @description close the shared session (no-op if it was never opened)
+	 */
+	public static synchronized void close() {
+		if (session == null) return;
+		PollStatsExporter.shutdown();
+		session.closePool();
+		session = null;
+	}
+}
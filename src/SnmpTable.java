@@ -0,0 +1,259 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.UnsignedInteger32;
+import org.snmp4j.smi.Variable;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * @description Result of one table walk, kept by column and row index instead of "." + oid -> value strings.
+ * 	Integer syntaxes (INTEGER, Counter32, Gauge32, TimeTicks, Counter64) are read with Variable.toLong()
+ * 	into a long[] per column, so numeric columns never create a String. Other syntaxes (OctetString, OID ...)
+ * 	are kept as text in a String[] that is only allocated for such columns.
+ *
+ * 	Only tables with a single integer index are supported (hrStorage, hrSWRun, hrSWRunPerf, hrProcessor),
+ * 	the row index is the last sub-identifier and the column is the oid without it.
+ */
+public class SnmpTable {
+
+	private final List<Column> columns = new ArrayList<>(4);
+
+	/**
+	 * false if the walk that filled the table ended early (timeout, error, tooBig) : rows may be missing
+	 * */
+	private volatile boolean complete = true;
+
+	/**
+	 * @description add a varbind of a walk or response, exceptions (noSuchInstance, endOfMibView ...) are skipped
+	 * @param vb
+	 */
+	public synchronized void add(VariableBinding vb) {
+		if (vb == null || vb.isException()) return;
+		OID oid = vb.getOid();
+		Column column = columnOf(oid);
+		Variable value = vb.getVariable();
+		if (isNumeric(value)) {
+			column.addLong(oid.last(), value.toLong());
+		} else {
+			column.addText(oid.last(), value.toString());
+		}
+	}
+
+	public synchronized void addLong(OID columnOid, int row, long value) {
+		columnOf(columnOid, columnOid.size()).addLong(row, value);
+	}
+
+	public synchronized void addText(OID columnOid, int row, String text) {
+		columnOf(columnOid, columnOid.size()).addText(row, text);
+	}
+
+	/**
+	 * @description add a complete column of another table (shared, so only for tables that are no longer filled)
+	 * @param column
+	 */
+	public synchronized void putColumn(Column column) {
+		columns.add(column);
+	}
+
+	/**
+	 * @return {List} the columns in the order they were first added
+	 */
+	public synchronized List<Column> columns() {
+		return new ArrayList<>(columns);
+	}
+
+	/**
+	 * @param columnOid
+	 * @return {Column} null if the table has no value of the column
+	 */
+	public synchronized Column column(OID columnOid) {
+		for (Column column : columns) {
+			if (column.oid.equals(columnOid)) return column;
+		}
+		return null;
+	}
+
+	/**
+	 * @return {boolean} true if no value was added
+	 */
+	public synchronized boolean isEmpty() {
+		for (Column column : columns) {
+			if (column.size > 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return {boolean} false if the walk ended early and rows may be missing
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @description mark the table as the partial result of a walk that ended early
+	 * @return {SnmpTable} this table
+	 */
+	public SnmpTable incomplete() {
+		complete = false;
+		return this;
+	}
+
+	/**
+	 * @return {int} number of values over all columns
+	 */
+	public synchronized int size() {
+		int size = 0;
+		for (Column column : columns) {
+			size += column.size;
+		}
+		return size;
+	}
+
+	/**
+	 * @description copy that stays the same while a walk is still adding to this table
+	 * @return {SnmpTable}
+	 */
+	public synchronized SnmpTable copy() {
+		SnmpTable copy = new SnmpTable();
+		for (Column column : columns) {
+			copy.columns.add(column.copy());
+		}
+		copy.complete = complete;
+		return copy;
+	}
+
+	private Column columnOf(OID oid) {
+		return columnOf(oid, oid.size() - 1);
+	}
+
+	/**
+	 * @description column of the first columnLength sub-identifiers of the oid, created on first use
+	 */
+	private Column columnOf(OID oid, int columnLength) {
+		for (Column column : columns) {
+			if (column.oid.size() == columnLength && oid.leftMostCompare(columnLength, column.oid) == 0) {
+				return column;
+			}
+		}
+		Column column = new Column(new OID(oid.getValue(), 0, columnLength));
+		columns.add(column);
+		return column;
+	}
+
+	private static boolean isNumeric(Variable value) {
+		return value instanceof Integer32 || value instanceof UnsignedInteger32 || value instanceof Counter64;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (Column column : columns) {
+			if (sb.length() > 1) sb.append(", ");
+			sb.append(column.oid).append(" rows:").append(column.size);
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * @description values of one column in the order they arrived (walk order, so ascending row index)
+	 */
+	public static final class Column {
+		private final OID oid;
+		private int size;
+		private int[] rows = new int[16];
+		private long[] longs = new long[16];
+		private String[] texts;
+		private boolean sorted = true;
+
+		private Column(OID oid) {
+			this.oid = oid;
+		}
+
+		private void addLong(int row, long value) {
+			int i = next(row);
+			longs[i] = value;
+		}
+
+		private void addText(int row, String text) {
+			int i = next(row);
+			if (texts == null) {
+				texts = new String[rows.length];
+			}
+			texts[i] = text;
+		}
+
+		private int next(int row) {
+			if (size == rows.length) {
+				int capacity = size * 2;
+				rows = Arrays.copyOf(rows, capacity);
+				longs = Arrays.copyOf(longs, capacity);
+				if (texts != null) texts = Arrays.copyOf(texts, capacity);
+			}
+			if (size > 0 && rows[size - 1] >= row) {
+				sorted = false;
+			}
+			rows[size] = row;
+			return size++;
+		}
+
+		private Column copy() {
+			Column copy = new Column(oid);
+			copy.size = size;
+			copy.rows = Arrays.copyOf(rows, Math.max(1, size));
+			copy.longs = Arrays.copyOf(longs, Math.max(1, size));
+			copy.texts = texts == null ? null : Arrays.copyOf(texts, Math.max(1, size));
+			copy.sorted = sorted;
+			return copy;
+		}
+
+		public OID getOid() {
+			return oid;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @return {int} row index (last sub-identifier) of the i-th value
+		 */
+		public int row(int i) {
+			return rows[i];
+		}
+
+		public long getLong(int i) {
+			return longs[i];
+		}
+
+		public double getDouble(int i) {
+			return longs[i];
+		}
+
+		/**
+		 * @return {String} text value, or the number as text for numeric values
+		 */
+		public String getText(int i) {
+			return texts != null && texts[i] != null ? texts[i] : Long.toString(longs[i]);
+		}
+
+		/**
+		 * @param row row index
+		 * @return {int} position of the row in this column, -1 if the column has no value for it
+		 */
+		public int find(int row) {
+			if (sorted) {
+				int i = Arrays.binarySearch(rows, 0, size, row);
+				return i < 0 ? -1 : i;
+			}
+			for (int i=0; i<size; i++) {
+				if (rows[i] == row) return i;
+			}
+			return -1;
+		}
+	}
+}
@@ -1,495 +1,1195 @@
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.Optional;
-import java.util.TreeMap;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
-import org.snmp4j.CommunityTarget;
-import org.snmp4j.PDU;
-import org.snmp4j.ScopedPDU;
-import org.snmp4j.Snmp;
-import org.snmp4j.Target;
-import org.snmp4j.UserTarget;
-import org.snmp4j.mp.MPv3;
-import org.snmp4j.mp.MessageProcessingModel;
-import org.snmp4j.mp.SnmpConstants;
-import org.snmp4j.security.AuthMD5;
-import org.snmp4j.security.PrivAES128;
-import org.snmp4j.security.SecurityLevel;
-import org.snmp4j.security.SecurityModels;
-import org.snmp4j.security.SecurityProtocols;
-import org.snmp4j.security.USM;
-import org.snmp4j.security.UsmUser;
-import org.snmp4j.smi.GenericAddress;
-import org.snmp4j.smi.OID;
-import org.snmp4j.smi.OctetString;
-import org.snmp4j.smi.VariableBinding;
-import org.snmp4j.transport.DefaultUdpTransportMapping;
-import org.snmp4j.util.DefaultPDUFactory;
-import org.snmp4j.util.PDUFactory;
-import org.snmp4j.util.TreeEvent;
-import org.snmp4j.util.TreeListener;
-import org.snmp4j.util.TreeUtils;
-
-public class SnmpWorker implements Callable {
-
-	/**
-	 * @description OID Information (GETBULK, SUBTREE )
-	 * 	Default 
-	 * 		- .1.3.6.1.2.1.25.2.3.1 (Disk-Usage, Memory, Swap)
-	 * 		- .1.3.6.1.2.1.25.3.3.1.2 (CPU LOAD)
-	 * 	Addtional
-	 * 		- μ ͸
-	 * 			- ".1.3.6.1.2.1.25.4.2.1.2" // (hrSWRunName)
-	 * 			- ".1.3.6.1.2.1.25.5.1.1.2" // (hrSWRunPerfMem)
-	 * 		- ̽ (Ʈũ뷮)
-	 * */
-	private final static String[] oids = {
-			".1.3.6.1.2.1.25.2.3.1", 	// include <-- hrStorageUsed & hrStorageSize & hrStorageDescr
-			".1.3.6.1.2.1.25.4.2.1.2", 	// (hrSWRunName)
-			".1.3.6.1.2.1.25.5.1.1.2", 	// (hrSWRunPerfMem)
-			".1.3.6.1.2.1.25.3.3.1.2" 	// (hrProcessorLoad)
-	};
-
-
-
-	private final static String[] extractUsageOidKeys = {".1.3.6.1.2.1.25.2.3.1.3",".1.3.6.1.2.1.25.2.3.1.5", ".1.3.6.1.2.1.25.2.3.1.6"};
-	private final static String extractUsageTypeOidKey = ".1.3.6.1.2.1.25.2.3.1.3";
-	private final static String extractCpuLoadOidKey = ".1.3.6.1.2.1.25.3.3.1.2";
-
-	private final static String[] diskBlackCaseType = {"PHYSICAL MEMORY","VIRTUAL MEMORY","MEMORY BUFFERS","CACHED MEMORY","SWAP SPACE","REAL MEMORY"};
-	private final static String[] memoryType = {"PHYSICAL MEMORY", "MEMORY BUFFERS", "REAL MEMORY"};
-	private final static String[] swapType = {"VIRTUAL MEMORY","SWAP SPACE"};
-
-	private final static List<String> diskBlackCaseList = new ArrayList<>(Arrays.asList(diskBlackCaseType));
-	private final static List<String> memList = new ArrayList<>(Arrays.asList(memoryType));
-	private final static List<String> swapList = new ArrayList<>(Arrays.asList(swapType));
-
-	private static int snmpRetries = 1;
-	private static long snmpTimeout = 7000;
-	private static int maxRepetitions = 100;
-	private static long threadTimeoutMills = 8000;
-
-	/**
-	 * SNMPv3 auth protocol
-	 * */
-	private final OID authProtocol = AuthMD5.ID;
-
-	/**
-	 * SNMPv3 priv protocol
-	 * */
-	private final OID privProtocol = PrivAES128.ID;
-
-	private Map<String,Object> hm;
-
-
-
-	// Constructor
-	public SnmpWorker(Map<String,Object> hm) {
-		this.hm = hm;
-	}
-
-	@Override
-	public Boolean call() throws Exception {
-		return snmpWalk(this.hm);
-	}
-
-	private boolean snmpWalk(final Map<String,Object> hm) {
-
-		try {
-
-			final String deviceId = hm.get("deviceid").toString();
-			final String ipaddress = hm.get("ip").toString();
-			final String community = hm.get("community").toString();
-			final String version = hm.get("version").toString();
-			final String passwd = hm.get("password").toString();
-
-			final Snmp snmp = new Snmp(new DefaultUdpTransportMapping());
-			snmp.listen();
-
-			final Target target = getTarget(ipaddress, community, version, passwd);
-
-			CompletableFuture<Map<String,String>> completableFuture1 = CompletableFuture.supplyAsync(() -> sendAsyncRequest(oids[0], target, deviceId, snmp, ipaddress, version));
-			CompletableFuture<Map<String,String>> completableFuture2 = CompletableFuture.supplyAsync(() -> sendAsyncRequest(oids[1], target, deviceId, snmp, ipaddress, version));
-			CompletableFuture<Map<String,String>> completableFuture3 = CompletableFuture.supplyAsync(() -> sendAsyncRequest(oids[2], target, deviceId, snmp, ipaddress, version));
-			CompletableFuture<Map<String,String>> completableFuture4 = CompletableFuture.supplyAsync(() -> sendAsyncRequest(oids[3], target, deviceId, snmp, ipaddress, version));
-
-			List<CompletableFuture<Map<String,String>>> futures = Arrays.asList(completableFuture1,
-					completableFuture2,
-					completableFuture3,
-					completableFuture4);
-
-			CompletableFuture.allOf(completableFuture1, completableFuture2, completableFuture3, completableFuture4)
-			.thenAccept(s -> {
-
-				try {
-					snmp.close();
-				} catch (IOException e) {
-					System.err.println("snmp close exception : " + e);
-				}
-
-				List<Map<String,String>> result = futures.stream()
-						.map(pageContentFuture -> pageContentFuture.join())
-						.collect(Collectors.toList());
-				System.out.println("  # " + hm.get("deviceid") + " final result size : " + result.size());
-
-				Map<String,Object> calc = new HashMap<String,Object>();
-				Map<String,Object> calcDisk = new HashMap<String,Object>();
-				calc.put("ip", ipaddress);
-				calc.put("id", deviceId);
-
-
-				/**
-				 * @description Usage (DiskUsage, Memory, Swap)
-				 * */
-				@SuppressWarnings("unchecked")
-				Map<String,String> resUsage = result.get(0);
-				if (resUsage != null) {
-					Map<String,Double> tmpValue = new HashMap<String,Double>();
-
-					List<String> subOidEntry = Stream.of(resUsage.keySet().toArray())
-							.filter(item -> item.toString().contains(extractUsageTypeOidKey) )
-							.map(e -> getSubOid(e.toString()) )
-							.collect(Collectors.toList());
-
-					subOidEntry.stream().map(item -> Stream.of(extractUsageOidKeys)
-							.map(m -> m.concat("." + item))
-							.collect(Collectors.toList()))
-					.forEach(l -> {
-						String storageType = resUsage.get(l.get(0)); // .toUpperCase();
-						Double tot = Double.parseDouble( resUsage.get(l.get(1)) );
-						Double use = Double.parseDouble( resUsage.get(l.get(2)) );
-						tmpValue.put(storageType, (use/tot)*100);
-					});
-
-
-					/**
-					 * @description Get Disk Usage Value
-					 * */
-					Stream.of(tmpValue.keySet().toArray())
-					.filter(item -> !diskBlackCaseList.contains(item.toString().toUpperCase()))
-					.forEach(key -> {
-						calcDisk.put("DISK@" + getDecodeStr(key.toString()), tmpValue.get(key));
-					});
-
-
-					/**
-					 * @description Get Memory Usage Value
-					 * */
-					Double memVal = Stream.of(tmpValue.keySet().toArray())
-							.filter(item -> memList.contains(item.toString().toUpperCase()))
-							.mapToDouble(tmpValue::get)
-							.average()
-							.orElseThrow(NoSuchElementException::new)
-							;
-
-					calc.put("MEMORY", memVal);
-
-					/**
-					 * @description Get Swap Usage Value
-					 * */
-					Double swapVal = Stream.of(tmpValue.keySet().toArray())
-							.filter(item -> swapList.contains(item.toString().toUpperCase()))
-							.mapToDouble(tmpValue::get)
-							.average()
-							.orElseThrow(NoSuchElementException::new)
-							;
-
-					calc.put("SWAP", swapVal);
-				}
-
-
-
-
-				/**
-				 * @description CPU Load
-				 * */
-				@SuppressWarnings("unchecked")
-				Map<String,String> resCpuLoad = result.get(3);
-				if ( resCpuLoad != null ) {
-					long cpuCore = Stream.of(resCpuLoad.keySet().toArray())
-							.filter(item -> item.toString().contains(extractCpuLoadOidKey) )
-							.count();
-
-					Optional<Double> sum = Stream.of(resCpuLoad.keySet().toArray())
-							.filter(item -> item.toString().contains(extractCpuLoadOidKey) )
-							.map(resCpuLoad::get)
-							.map(Double::parseDouble)
-							.reduce(Double::sum);
-
-					calc.put("CPULOAD", sum.get()/cpuCore);
-				}
-
-
-				/**
-				 * @description Process List
-				 * */
-				Map<String,String> resProcess = result.get(1);
-				Map<String,String> resProcessMem = result.get(2);
-
-				Map<String,Object> calcProc = new HashMap<String,Object>();
-				calcProc.put("id", deviceId);
-				calcProc.put("ip", ipaddress);
-
-				if ( resProcess != null && resProcessMem != null ) {
-					List<Map<String,Object>> resProcList = new ArrayList<Map<String,Object>>();
-					resProcess.keySet().forEach(item -> {
-						Map<String,Object> proc = new HashMap<String,Object>();
-						proc.put(resProcess.get(item), resProcessMem.get(".1.3.6.1.2.1.25.5.1.1.2." + getSubOid(item)));
-						resProcList.add(proc);
-					});
-					calcProc.put("data", resProcList);
-				}
-
-//				 /*jw*/ System.out.println("    >> " + calc.toString());
-//				 /*jw*/ System.out.println("    >> " + calcProc.toString());
-//				 /*jw*/ System.out.println("    >>" + calcDisk.toString());
-//				 /*jw*/ System.out.println(deviceId + " is end.....................................................");
-
-
-				calc.clear();
-				calcDisk.clear();
-				calcProc.clear();
-
-			});
-
-		} catch (Exception e) {
-			return false;
-		}
-
-		return true;
-	}
-
-
-
-	/**
-	 * @description Send Asynchronously SNMP GET-SUBTREE
-	 * @param tableOid
-	 * @param target
-	 * @param idx
-	 * @param snmp
-	 * @param fut
-	 * @param ipaddress
-	 */
-	private Map<String,String> sendAsyncRequest(String tableOid, Target target, String idx, Snmp snmp, String ipaddress, String version) {
-
-		Map<String, String> result = new TreeMap<>();
-
-		TreeUtils treeUtils = null;
-		if ("v3".equals(version)) {
-			treeUtils = new TreeUtils(snmp, new SysmonPduFactory());
-		} else {
-			treeUtils = new TreeUtils(snmp, new DefaultPDUFactory(PDU.GETBULK));
-		}
-
-		treeUtils.setMaxRepetitions(maxRepetitions); // default is 10
-
-		long start = System.currentTimeMillis();
-		final CountDownLatch latch = new CountDownLatch(1);
-
-		treeUtils.getSubtree(target, new OID(tableOid), null, new TreeListener() {
-
-			@Override
-			public boolean next(TreeEvent event) {
-				if (!resultProcess(result, event, ipaddress, tableOid)) {
-					// jw fut.complete();
-					return false;
-				}
-				return true;
-			}
-
-			@Override
-			public boolean isFinished() {
-				return false;
-			}
-
-			@Override
-			public void finished(TreeEvent event) {
-				if (!resultProcess(result, event, ipaddress, tableOid)) {
-					// jw fut.complete();
-				} else {
-					latch.countDown();
-					// jw fut.complete(result);
-				}
-			}
-		});
-
-		try {
-			boolean wait = latch.await(threadTimeoutMills, TimeUnit.MILLISECONDS);
-			if (wait) {
-				/*System.out.println("end occursNo:"+idx+", ipaddress:"+ipaddress+", oid:"+tableOid+
-						", CountDownLatch Wait : "+wait+", elapsed: "+(System.currentTimeMillis() - start)+"ms");*/
-			} else {
-				System.err.println("Error end occursNo:"+idx+", ipaddress:"+ipaddress+", CountDownLatch Wait : " + wait);
-			}
-		} catch (InterruptedException e) {
-			System.err.println("snmp InterruptedException (try to interrupt!!) " +  e);
-			Thread.currentThread().interrupt();
-		}
-
-		return result;
-	}
-
-
-	/**
-	 * @description result method
-	 * @param result
-	 * @param event
-	 * @return
-	 */
-	private boolean resultProcess(Map<String, String> result, TreeEvent event, String ipAddr, String tableOid) {
-		if ( event == null ) {
-			System.err.println("event is null, ip:{}, oid:{}" +  ipAddr + ", " +  tableOid);
-			return false;
-		} else {
-			if ( event.isError() ) {
-				System.err.println("err:{}, ip:{}, oid:{}" + event.getErrorMessage() + ", " + ipAddr + ", " + tableOid);
-				return false;
-			} else {
-				VariableBinding[] varBindings = event.getVariableBindings();
-				if (varBindings == null || varBindings.length == 0) {
-					System.err.println("varBinding is null, ip:{}, oid:{}" + ipAddr + ", " + tableOid);
-					return false;
-				} else {
-					for (VariableBinding varBinding : varBindings) {
-						if (varBinding == null) {
-							continue;
-						}
-
-						// System.out.println("ip : " + ipAddr + " oid: " + varBinding.getOid().toString() + " value: " + varBinding.getVariable().toString());
-						result.put("." + varBinding.getOid().toString(), varBinding.getVariable().toString());
-					}
-					return true;
-				}
-			}
-		}
-	}
-
-
-
-	private Target getTarget(final String ipaddress, final String community, final String version,
-			final String passwd) {
-		Target target;
-		if ( "v3".equals(version) ) {
-			
-			USM usm = USMFactory.getInstance().getUSM();
-			usm.setLocalEngine(new OctetString(MPv3.createLocalEngineID()), 0, usm.getEngineTime());
-			SecurityModels.getInstance().addSecurityModel(usm);
-			UsmUser user = new UsmUser(new OctetString(community), this.authProtocol, new OctetString(passwd), this.privProtocol, new OctetString(passwd));
-			usm.addUser(new OctetString(community), user);
-			
-			
-			/*USM usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
-			usm.addUser(new OctetString(community), new UsmUser(new OctetString(community), this.authProtocol,
-					new OctetString(passwd), this.privProtocol, new OctetString(passwd)));
-			SecurityModels.getInstance().addSecurityModel(usm);*/
-
-			target = createCommunity(ipaddress, community, passwd);
-		} else {
-			target = createCommunity(ipaddress, community);
-		}
-		return target;
-	}
-	
-	
-
-
-	/**
-	 * @description Create SNMP Community Target
-	 * @param ip
-	 * @param community
-	 * @return {CommunityTarget}
-	 */
-	private CommunityTarget createCommunity(String ip, String community) {
-		CommunityTarget target = new CommunityTarget();
-		target.setCommunity(new OctetString(community));
-		target.setAddress(GenericAddress.parse("udp:"+ip+"/161")); // supply your own IP and port
-		target.setRetries(snmpRetries);
-		target.setTimeout(snmpTimeout);
-		target.setVersion(SnmpConstants.version2c);
-		return target;
-	}
-
-	/**
-	 * @description Create SNMP User Target For SNMPv3
-	 * @param ip
-	 * @param community
-	 * @param passwd
-	 * @return {UserTarget}
-	 */
-	private UserTarget createCommunity(String ip, String community, String passwd) {
-		UserTarget target = new UserTarget();
-		target.setAddress(GenericAddress.parse("udp:"+ip+"/161")); // supply your own IP and port
-		target.setRetries(snmpRetries);
-		target.setTimeout(snmpTimeout);
-		target.setVersion(SnmpConstants.version3);
-		target.setSecurityLevel(SecurityLevel.AUTH_PRIV);
-		target.setSecurityName(new OctetString(community));
-
-		return target;
-	}
-
-	/**
-	 * @description Create PDU For SNMPv3
-	 * @author user
-	 *	
-	 */
-	private final class SysmonPduFactory implements PDUFactory {
-		@Override
-		public PDU createPDU(Target target) {
-			return getPDU();
-		}
-
-		@Override
-		public PDU createPDU(MessageProcessingModel messageProcessingModel) {
-			return getPDU();
-		}
-	}
-
-	/**
-	 * @description create the PDU For SNMPv3
-	 * @return {PDU}
-	 */
-	private PDU getPDU() {
-		PDU pdu = new ScopedPDU();
-		// pdu.add(new VariableBinding(SnmpConstants.sysDescr ));
-		pdu.setType(PDU.GETBULK);
-		pdu.setMaxRepetitions(maxRepetitions); //or any number you wish
-		return pdu;
-	}
-
-	/**
-	 * @description get sub oid
-	 * @param str
-	 * @return {String}
-	 */
-	private String getSubOid(String str) {
-		String[] strArr = str.split("\\.");
-		return strArr[strArr.length-1];
-	}
-
-	private String getDecodeStr(String org) {
-		try {
-			if ( org.split(":").length >= 5 ) {
-				return URLDecoder.decode("%"+org.replace(":", "%"),"euc-kr");
-			} else {
-				return org;
-			}
-		} catch (UnsupportedEncodingException e) {
-			return org;
-		}
-	}
-}
-
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.PDU;
+import org.snmp4j.ScopedPDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.Target;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.UserTarget;
+import org.snmp4j.mp.MessageProcessingModel;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.security.AuthMD5;
+import org.snmp4j.security.PrivAES128;
+import org.snmp4j.security.SecurityLevel;
+import org.snmp4j.smi.GenericAddress;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.util.DefaultPDUFactory;
+import org.snmp4j.util.PDUFactory;
+import org.snmp4j.util.TableEvent;
+import org.snmp4j.util.TableListener;
+import org.snmp4j.util.TableUtils;
+import org.snmp4j.util.TreeEvent;
+import org.snmp4j.util.TreeListener;
+import org.snmp4j.util.TreeUtils;
+
+public class SnmpWorker implements Callable<Boolean> {
+
+	/**
+	 * outcome of a call() that returned true : the device was polled, had no OID group due, or was skipped as DOWN
+	 * */
+	public static final int POLLED = 0;
+	public static final int NOT_DUE = 1;
+	public static final int DOWN = 2;
+
+	/**
+	 * @description OID Information (GETBULK, SUBTREE 방식)
+	 * 	Default 
+	 * 		- .1.3.6.1.2.1.25.2.3.1 (Disk-Usage, Memory, Swap)
+	 * 		- .1.3.6.1.2.1.25.3.3.1.2 (CPU LOAD)
+	 * 	Addtional
+	 * 		- 프로세스 모니터링
+	 * 			- ".1.3.6.1.2.1.25.4.2.1.2" // (hrSWRunName)
+	 * 			- ".1.3.6.1.2.1.25.5.1.1.2" // (hrSWRunPerfMem)
+	 * 		- 인터페이스 (네트워크사용량)
+	 * */
+	private final static String[] oids = {
+			".1.3.6.1.2.1.25.2.3.1", 	// include <-- hrStorageUsed & hrStorageSize & hrStorageDescr
+			".1.3.6.1.2.1.25.4.2.1.2", 	// (hrSWRunName)
+			".1.3.6.1.2.1.25.5.1.1.2", 	// (hrSWRunPerfMem)
+			".1.3.6.1.2.1.25.3.3.1.2" 	// (hrProcessorLoad)
+	};
+
+
+
+	private static int snmpRetries = 1;
+	private static long snmpTimeout = 7000;
+	private static long threadTimeoutMills = 8000;
+
+	/**
+	 * subtree (one walk per table) | table (one multi-column stream per device)
+	 * */
+	private final static String retrieval = PollerConfig.getInstance().getString("poller.retrieval", "subtree");
+	/**
+	 * walk hrSWRunPerfMem only and fetch the names of new processes (see ProcessTable)
+	 * */
+	private final static boolean processDelta = PollerConfig.getInstance().getBoolean("poller.process.delta", false);
+	private final static boolean debugTraffic = PollerConfig.getInstance().getBoolean("poller.debug.traffic", false);
+
+	/**
+	 * an OID group is due up to half a poll interval early, so scheduling jitter never skips a whole tick
+	 * */
+	private final static long dueSlackMills = PollerConfig.getInstance().getLong("poller.interval.seconds", 10) * 500;
+
+	/**
+	 * poll interval, a poll that takes longer counts as an overrun in PollStats
+	 * */
+	private final static long intervalMills = PollerConfig.getInstance().getLong("poller.interval.seconds", 10) * 1000;
+
+	/**
+	 * completes walks that run past threadTimeoutMills (one daemon thread for every device)
+	 * */
+	private final static ScheduledExecutorService walkTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "snmp-walk-timer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * SNMPv3 auth protocol
+	 * */
+	private final OID authProtocol = AuthMD5.ID;
+
+	/**
+	 * SNMPv3 priv protocol
+	 * */
+	private final OID privProtocol = PrivAES128.ID;
+
+	private Map<String,Object> hm;
+
+	/**
+	 * shared session owned by SnmpPoller (never closed here)
+	 * */
+	private final Snmp snmp;
+
+	/**
+	 * other devices of the same agent that get the result of this poll (poller.coalesce)
+	 * */
+	private final List<String> sharedWith;
+
+	private volatile int outcome = POLLED;
+
+
+	// Constructor
+	public SnmpWorker(Map<String,Object> hm, Snmp snmp) {
+		this(hm, snmp, Collections.<String>emptyList());
+	}
+
+	public SnmpWorker(Map<String,Object> hm, Snmp snmp, List<String> sharedWith) {
+		this.hm = hm;
+		this.snmp = snmp;
+		this.sharedWith = sharedWith;
+	}
+
+	@Override
+	public Boolean call() throws Exception {
+		return snmpWalk(this.hm);
+	}
+
+	/**
+	 * @return {int} POLLED, NOT_DUE or DOWN, meaningful once call() returned true
+	 */
+	public int getOutcome() {
+		return outcome;
+	}
+
+	private boolean snmpWalk(final Map<String,Object> hm) {
+
+		try {
+
+			final String deviceId = hm.get("deviceid").toString();
+			final String ipaddress = hm.get("ip").toString();
+			final String community = hm.get("community").toString();
+			final String version = hm.get("version").toString();
+			final String passwd = hm.get("password").toString();
+
+			final Target target = getTarget(ipaddress, community, version, passwd);
+
+			/**
+			 * @description only the OID groups whose interval has passed and that an enabled metric reads are walked on this tick
+			 * */
+			final DeviceState state = DeviceState.of(deviceId);
+			final MetricDefinitions.Plan plan = state.getMetricPlan();
+			final PollStats pollStats = state.getPollStats();
+			PollStatsExporter.target(target.getAddress(), pollStats);
+			final long now = System.currentTimeMillis();
+			final Set<OidGroup> due = EnumSet.noneOf(OidGroup.class);
+			for (OidGroup group : OidGroup.values()) {
+				if (plan.uses(group) && state.isDue(group, now, dueSlackMills)) {
+					due.add(group);
+				}
+			}
+			if (due.isEmpty()) {
+				outcome = NOT_DUE;
+				return true;
+			}
+
+			/**
+			 * @description a suspect device, or a down device whose backoff has passed, is probed before the walks are sent
+			 * */
+			final DeviceHealth health = state.getHealth();
+			final int action = health.action(now);
+			if (action == DeviceHealth.DOWN) {
+				outcome = DOWN;
+				return true;
+			}
+			if (action == DeviceHealth.SUSPECT) {
+				if (!probe(target, deviceId, ipaddress, version)) {
+					health.probeMissed(System.currentTimeMillis());
+					forgetEngine(target);
+					System.err.println("device is not answering, deviceid:" + deviceId + ", ipaddress:" + ipaddress + ", " + health);
+					return false;
+				}
+				health.probeAnswered();
+			}
+
+			final Set<String> dueTables = new HashSet<>();
+			for (String tableOid : oids) {
+				if (due.contains(OidGroup.of(tableOid)) && plan.reads(tableOid)) {
+					dueTables.add(tableOid);
+				}
+			}
+
+			final TrafficStats traffic = new TrafficStats();
+
+			/**
+			 * @description with known hrStorage metadata storage is read by one probe instead of a walk
+			 * */
+			final StorageMetadata storageMeta = state.getStorageMetadata();
+			final boolean probeStorage = storageMeta != null && dueTables.contains(oids[0]);
+
+			/**
+			 * @description in process delta mode hrSWRunName is only walked while names are unknown or the refresh is due
+			 * */
+			final ProcessTable processTable = state.getProcessTable();
+			final boolean processDue = processDelta && dueTables.contains(ProcessTable.hrSWRunName) && dueTables.contains(ProcessTable.hrSWRunPerfMem);
+			final boolean deltaProcess = processDue && !processTable.needsFullWalk();
+
+			final Set<String> walkTables = new HashSet<>(dueTables);
+			if (probeStorage) {
+				walkTables.remove(oids[0]);
+			}
+			if (deltaProcess) {
+				walkTables.remove(ProcessTable.hrSWRunName);
+			}
+
+			/**
+			 * @description one future per table in oids order, either
+			 * 	- subtree : one GETBULK subtree walk per table
+			 * 	- table   : one multi-column GETBULK stream per device, only the columns the enabled metrics read
+			 * */
+			final List<CompletableFuture<SnmpTable>> futures = new ArrayList<>(oids.length);
+			if ("table".equals(retrieval) && !walkTables.isEmpty()) {
+				CompletableFuture<Map<String,SnmpTable>> table = sendTableRequest(walkTables, plan, target, deviceId, ipaddress, version, state.getBulkSize(), traffic);
+				for (String tableOid : oids) {
+					futures.add(walkTables.contains(tableOid)
+							? table.thenApply(tables -> tables.get(tableOid))
+							: CompletableFuture.completedFuture(state.getLastResult(tableOid)));
+				}
+			} else {
+				for (String tableOid : oids) {
+					futures.add(walkIfDue(walkTables, state, tableOid, target, deviceId, ipaddress, version, traffic));
+				}
+			}
+
+			if (probeStorage) {
+				futures.set(0, sendStorageProbe(storageMeta, target, deviceId, ipaddress, version, state.getBulkSize(), traffic)
+						.thenCompose(probed -> {
+							if (probed != null) {
+								return CompletableFuture.completedFuture(probed);
+							}
+							System.out.println("storage metadata is stale, walk hrStorage again, deviceid : " + deviceId);
+							state.setStorageMetadata(null);
+							return sendAsyncRequest(oids[0], target, deviceId, snmp, ipaddress, version, state.getBulkSize(), traffic)
+									.thenApply(walked -> refreshStorageMetadata(state, walked));
+						}));
+			} else if (dueTables.contains(oids[0])) {
+				futures.set(0, futures.get(0).thenApply(walked -> refreshStorageMetadata(state, walked)));
+			}
+
+			if (deltaProcess) {
+				futures.set(1, futures.get(2).thenCompose(mem -> fetchProcessNames(processTable, mem, target, deviceId, ipaddress, version,
+						state.getBulkSize(), traffic)));
+			} else if (processDue) {
+				futures.set(1, futures.get(1).thenApply(names -> {
+					// a walk that ended early would drop the processes it did not reach
+					if (names.isComplete()) processTable.replace(names);
+					return names;
+				}));
+			}
+
+			for (int i=0; i<oids.length; i++) {
+				if (!dueTables.contains(oids[i])) continue;
+				final OidGroup group = OidGroup.of(oids[i]);
+				futures.get(i).thenAccept(table -> pollStats.walked(group, System.currentTimeMillis() - now, table == null ? 0 : table.size()));
+			}
+
+			CompletableFuture<Void> walks = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+
+			// walks complete on the snmp listener thread; wait here so the result is processed on this worker thread.
+			// the dispatcher counts a device as busy until its result is processed (get() so a cycle deadline can interrupt)
+			walks.get();
+
+			final Set<String> walked = rememberWalks(due, dueTables, state, futures, now);
+
+			if (debugTraffic) {
+				System.out.println("traffic deviceid:" + deviceId + ", retrieval:" + retrieval + ", groups:" + due + ", " + traffic);
+			}
+
+			walks.thenAccept(s -> {
+
+				List<SnmpTable> result = futures.stream()
+						.map(pageContentFuture -> pageContentFuture.join())
+						.collect(Collectors.toList());
+				System.out.println("  # " + hm.get("deviceid") + " final result size : " + result.size()
+						+ (sharedWith.isEmpty() ? "" : ", also for : " + sharedWith));
+
+				Map<String,Object> calc = new HashMap<String,Object>();
+				Map<String,Object> calcDisk = new HashMap<String,Object>();
+				calc.put("ip", ipaddress);
+				calc.put("id", deviceId);
+
+
+				/**
+				 * @description metrics compiled from config/metrics.properties
+				 * 	avg, sum, ratio -> calc (CPULOAD, MEMORY, SWAP), each -> calcDisk (DISK@...), list -> calcProc data
+				 * */
+				Map<String,Object> calcProc = new HashMap<String,Object>();
+				calcProc.put("id", deviceId);
+				calcProc.put("ip", ipaddress);
+				List<Map<String,Object>> resProcList = new ArrayList<Map<String,Object>>();
+
+				/**
+				 * @description only metrics whose tables were walked on this tick are samples : the last results of
+				 * 	groups that are not due were published when they were walked and are not extracted again
+				 * */
+				extractMetrics(plan.metricsOf(walked), result, calc, calcDisk, resProcList);
+				if (!resProcList.isEmpty()) {
+					calcProc.put("data", resProcList);
+				}
+
+				publish(deviceId, state, now, calc, calcDisk, resProcList);
+				for (String other : sharedWith) {
+					publish(other, DeviceState.of(other), now, calc, calcDisk, resProcList);
+				}
+
+//				 /*jw*/ System.out.println("    >> " + calc.toString());
+//				 /*jw*/ System.out.println("    >> " + calcProc.toString());
+//				 /*jw*/ System.out.println("    >>" + calcDisk.toString());
+//				 /*jw*/ System.out.println(deviceId + " is end.....................................................");
+
+
+				calc.clear();
+				calcDisk.clear();
+				calcProc.clear();
+
+			});
+
+			pollStats.polled(now, System.currentTimeMillis() - now, intervalMills, traffic.timeouts.get(), traffic.tooBig.get());
+			final boolean answered = traffic.varbinds.get() > 0 || traffic.tooBig.get() > 0;
+			health.polled(answered, System.currentTimeMillis());
+			if (!answered) {
+				forgetEngine(target);
+				return false;
+			}
+
+		} catch (Exception e) {
+			return false;
+		}
+
+		return true;
+	}
+
+
+
+	/**
+	 * @description hand the values of one poll to the metric sink (sink.backends), nothing if no sink is configured.
+	 * 	calc and calcDisk values are published under their key, process list rows as PROC@<name> with the rows of
+	 * 	the same name summed (twenty httpd processes are one series, not twenty values at the same time).
+	 * 	The values also feed the rollup windows (rollup.windows) if configured. With emit.deadbands only the values that
+	 * 	changed beyond their deadband (or are due for a heartbeat) reach the sink, the rollup still gets every value.
+	 * @param deviceId
+	 * @param state
+	 * @param timeMills poll time
+	 * @param calc
+	 * @param calcDisk
+	 * @param procList
+	 */
+	private void publish(String deviceId, DeviceState state, long timeMills, Map<String,Object> calc, Map<String,Object> calcDisk,
+			List<Map<String,Object>> procList) {
+		MetricSink sink = MetricSink.getInstance();
+		if (sink == null) return;
+		Rollup rollup = Rollup.getInstance();
+		EmissionFilter filter = EmissionFilter.isEnabled() ? state.getEmissionFilter() : null;
+
+		for (Map.Entry<String,Object> e : calc.entrySet()) {
+			publish(sink, rollup, filter, deviceId, e.getKey(), timeMills, e.getValue());
+		}
+		for (Map.Entry<String,Object> e : calcDisk.entrySet()) {
+			publish(sink, rollup, filter, deviceId, e.getKey(), timeMills, e.getValue());
+		}
+		Map<String,Double> procSums = new LinkedHashMap<String,Double>();
+		for (Map<String,Object> proc : procList) {
+			for (Map.Entry<String,Object> e : proc.entrySet()) {
+				if (e.getValue() instanceof Number) procSums.merge(e.getKey(), ((Number) e.getValue()).doubleValue(), Double::sum);
+			}
+		}
+		for (Map.Entry<String,Double> e : procSums.entrySet()) {
+			publish(sink, rollup, filter, deviceId, "PROC@" + e.getKey(), timeMills, e.getValue());
+		}
+	}
+
+	private void publish(MetricSink sink, Rollup rollup, EmissionFilter filter, String deviceId, String metric, long timeMills, Object value) {
+		if (!(value instanceof Number)) return; // ip, id
+		double v = ((Number) value).doubleValue();
+		if (Double.isNaN(v) || Double.isInfinite(v)) return;
+		if (filter == null || filter.accept(metric, v)) {
+			sink.publish(deviceId, metric, timeMills, v);
+		}
+		if (rollup != null) {
+			rollup.add(sink, deviceId, metric, timeMills, v);
+		}
+	}
+
+	/**
+	 * @description extract every metric of the plan from the walk results of one poll
+	 * @param plan
+	 * @param result walk results in oids order
+	 * @param calc avg, sum, ratio values
+	 * @param calcDisk each values
+	 * @param procList list rows
+	 */
+	static void extractMetrics(MetricDefinitions.Plan plan, List<SnmpTable> result, Map<String,Object> calc,
+			Map<String,Object> calcDisk, List<Map<String,Object>> procList) {
+		extractMetrics(plan.getMetrics(), result, calc, calcDisk, procList);
+	}
+
+	/**
+	 * @description extract the given metrics from the walk results of one poll
+	 */
+	static void extractMetrics(List<Metric> metrics, List<SnmpTable> result, Map<String,Object> calc,
+			Map<String,Object> calcDisk, List<Map<String,Object>> procList) {
+		for (Metric metric : metrics) {
+			metric.extract(result, calc, calcDisk, procList);
+		}
+	}
+
+	/**
+	 * @description rebuild the device's hrStorage metadata from a full walk
+	 * @param state
+	 * @param walked hrStorage walk result
+	 * @return {SnmpTable} the walk result unchanged
+	 */
+	private SnmpTable refreshStorageMetadata(DeviceState state, SnmpTable walked) {
+		if (walked != null && walked.isComplete() && !walked.isEmpty()) {
+			state.setStorageMetadata(StorageMetadata.fromWalk(walked));
+		}
+		return walked;
+	}
+
+	/**
+	 * @description Send the GETNEXT of sysUpTime, hrStorageSize and hrStorageUsed for the known rows,
+	 * 	split in PDUs of at most the learned max-repetitions varbinds (as the process name gets).
+	 * 	tooBig, noSuchName and genErr mean the agent does not answer the probe the way the metadata expects :
+	 * 	they are handled as stale metadata so that the caller walks hrStorage again.
+	 * @param meta
+	 * @param target
+	 * @param idx
+	 * @param ipaddress
+	 * @param version
+	 * @param bulkSize
+	 * @param traffic
+	 * @return {CompletableFuture} size and used of the known rows, empty and incomplete on timeout or other error,
+	 * 	null if the metadata is stale
+	 */
+	private CompletableFuture<SnmpTable> sendStorageProbe(StorageMetadata meta, Target target, String idx, String ipaddress,
+			String version, BulkSizeController bulkSize, TrafficStats traffic) {
+
+		final OID[] probeOids = meta.probeOids();
+		final int perPdu = Math.max(1, bulkSize.current());
+
+		List<CompletableFuture<PDU>> gets = new ArrayList<>();
+		for (int from=0; from<probeOids.length; from+=perPdu) {
+			PDU pdu = newPdu(version, PDU.GETNEXT);
+			for (int i=from; i<Math.min(probeOids.length, from + perPdu); i++) {
+				pdu.add(new VariableBinding(probeOids[i]));
+			}
+			gets.add(sendRequest(pdu, target, ipaddress, traffic));
+		}
+
+		return CompletableFuture.allOf(gets.toArray(new CompletableFuture<?>[gets.size()]))
+				.thenApply(v -> {
+					List<VariableBinding> vbs = new ArrayList<>(probeOids.length);
+					boolean stale = false;
+					for (CompletableFuture<PDU> get : gets) {
+						PDU response = get.join();
+						if (response == null || response.getErrorStatus() != PDU.noError) {
+							System.err.println("Error end occursNo:"+idx+", ipaddress:"+ipaddress+", storage probe "
+									+ (response == null ? "timeout" : response.getErrorStatusText()));
+							if (response == null) return new SnmpTable().incomplete();
+							final int status = response.getErrorStatus();
+							if (status == PDU.tooBig) {
+								bulkSize.onWalk(perPdu, BulkSizeController.WALK_TOO_BIG, 0, 0, 0, 0);
+							}
+							if (status != PDU.tooBig && status != PDU.noSuchName && status != PDU.genErr) {
+								return new SnmpTable().incomplete();
+							}
+							stale = true;
+							continue;
+						}
+						vbs.addAll(response.getVariableBindings());
+					}
+					return stale ? null : meta.checkProbe(vbs.toArray(new VariableBinding[0]));
+				});
+	}
+
+	/**
+	 * @description Delta poll of the process table : compare the hrSWRunPerfMem rows with the known processes
+	 * 	and GET hrSWRunName of new indexes only (learned max-repetitions names per PDU).
+	 * 	Names that could not be fetched stay unknown and are asked again on the next poll.
+	 * @param processTable
+	 * @param memWalk hrSWRunPerfMem walk result of this poll
+	 * @param target
+	 * @param idx
+	 * @param ipaddress
+	 * @param version
+	 * @param bulkSize
+	 * @param traffic
+	 * @return {CompletableFuture} hrSWRunName result of the running processes, incomplete if a name get failed,
+	 * 	empty and incomplete if the memory walk failed (the known processes are kept)
+	 */
+	private CompletableFuture<SnmpTable> fetchProcessNames(ProcessTable processTable, SnmpTable memWalk, Target target,
+			String idx, String ipaddress, String version, BulkSizeController bulkSize, TrafficStats traffic) {
+
+		if (memWalk == null || memWalk.isEmpty() || !memWalk.isComplete()) {
+			return CompletableFuture.completedFuture(new SnmpTable().incomplete());
+		}
+		final List<Integer> added = processTable.update(memWalk);
+		final int perPdu = bulkSize.current();
+		final AtomicInteger failedGets = new AtomicInteger();
+
+		List<CompletableFuture<PDU>> gets = new ArrayList<>();
+		for (int from=0; from<added.size(); from+=perPdu) {
+			PDU pdu = newPdu(version, PDU.GET);
+			for (int index : added.subList(from, Math.min(added.size(), from + perPdu))) {
+				pdu.add(new VariableBinding(new OID(ProcessTable.hrSWRunName).append(index)));
+			}
+			gets.add(sendRequest(pdu, target, ipaddress, traffic).thenApply(response -> {
+				if (response == null || response.getErrorStatus() != PDU.noError) {
+					System.err.println("Error end occursNo:"+idx+", ipaddress:"+ipaddress+", process name get "
+							+ (response == null ? "timeout" : response.getErrorStatusText()));
+					if (response != null && response.getErrorStatus() == PDU.tooBig) {
+						bulkSize.onWalk(perPdu, BulkSizeController.WALK_TOO_BIG, 0, 0, 0, 0);
+					}
+					failedGets.incrementAndGet();
+					return response;
+				}
+				for (VariableBinding vb : response.getVariableBindings()) {
+					if (!vb.isException()) {
+						processTable.add(vb.getOid().last(), vb.getVariable().toString());
+					}
+				}
+				return response;
+			}));
+		}
+
+		return CompletableFuture.allOf(gets.toArray(new CompletableFuture<?>[gets.size()]))
+				.thenApply(v -> {
+					SnmpTable names = processTable.namesOf(memWalk);
+					return failedGets.get() == 0 ? names : names.incomplete();
+				});
+	}
+
+	/**
+	 * @description Liveness probe : one GET of sysUpTime with health.probe.timeout.millis and no retry
+	 * @param target the poll target, its timeout and retries are restored afterwards
+	 * @param idx
+	 * @param ipaddress
+	 * @param version
+	 * @return {boolean} true if the agent answered (any response, errors included)
+	 */
+	private boolean probe(Target target, String idx, String ipaddress, String version) throws Exception {
+		PDU pdu = newPdu(version, PDU.GET);
+		pdu.add(new VariableBinding(SnmpConstants.sysUpTime));
+		target.setTimeout(DeviceHealth.getProbeTimeoutMills());
+		target.setRetries(0);
+		try {
+			return sendRequest(pdu, target, ipaddress, new TrafficStats()).get() != null;
+		} finally {
+			target.setTimeout(snmpTimeout);
+			target.setRetries(snmpRetries);
+		}
+	}
+
+	/**
+	 * @description Send one asynchronous request PDU, completed from the ResponseListener.
+	 * @param pdu
+	 * @param target
+	 * @param ipaddress
+	 * @param traffic
+	 * @return {CompletableFuture} the response, null on timeout (snmp or threadTimeoutMills) or send failure
+	 */
+	private CompletableFuture<PDU> sendRequest(PDU pdu, Target target, String ipaddress, TrafficStats traffic) {
+		final CompletableFuture<PDU> fut = new CompletableFuture<>();
+		traffic.pdus.incrementAndGet();
+
+		final ScheduledFuture<?> requestTimeout = walkTimer.schedule(() -> {
+			if (fut.complete(null)) traffic.timeouts.incrementAndGet();
+		}, threadTimeoutMills, TimeUnit.MILLISECONDS);
+		fut.whenComplete((r, t) -> requestTimeout.cancel(false));
+
+		try {
+			snmp.send(pdu, target, null, new ResponseListener() {
+				@Override
+				public void onResponse(ResponseEvent event) {
+					((Snmp) event.getSource()).cancel(event.getRequest(), this);
+					PDU response = event.getResponse();
+					if (response != null) {
+						traffic.received(response.getVariableBindings().toArray(new VariableBinding[0]));
+						if (response.getErrorStatus() == PDU.tooBig) traffic.tooBig.incrementAndGet();
+					}
+					fut.complete(response);
+				}
+			});
+		} catch (IOException e) {
+			System.err.println("snmp send exception : " + e + ", ipaddress:" + ipaddress);
+			fut.complete(null);
+		}
+		return fut;
+	}
+
+	/**
+	 * @param version
+	 * @param type PDU.GET, PDU.GETNEXT ...
+	 * @return {PDU} ScopedPDU for SNMPv3
+	 */
+	private PDU newPdu(String version, int type) {
+		PDU pdu = "v3".equals(version) ? new ScopedPDU() : new PDU();
+		pdu.setType(type);
+		return pdu;
+	}
+
+	/**
+	 * @description walk the table if it is walked on this poll, otherwise hand out the last result of the table
+	 * @return {CompletableFuture} last result is null if the table was never walked
+	 */
+	private CompletableFuture<SnmpTable> walkIfDue(Set<String> walkTables, DeviceState state, String tableOid, Target target,
+			String deviceId, String ipaddress, String version, TrafficStats traffic) {
+		if (walkTables.contains(tableOid)) {
+			return sendAsyncRequest(tableOid, target, deviceId, snmp, ipaddress, version, state.getBulkSize(), traffic);
+		}
+		return CompletableFuture.completedFuture(state.getLastResult(tableOid));
+	}
+
+	/**
+	 * @description keep fresh results for later ticks; a group counts as walked only if every table of it returned data
+	 * 	and its walk finished normally, a failed or partial group is walked again on the next tick
+	 * @param due
+	 * @param dueTables tables of the due groups the metrics read
+	 * @param state
+	 * @param futures in oids order
+	 * @param now
+	 * @return {Set<String>} tables walked completely on this tick
+	 */
+	private Set<String> rememberWalks(Set<OidGroup> due, Set<String> dueTables, DeviceState state, List<CompletableFuture<SnmpTable>> futures, long now) {
+		Set<String> walked = new HashSet<>();
+		Set<OidGroup> failed = EnumSet.noneOf(OidGroup.class);
+		for (int i=0; i<oids.length; i++) {
+			OidGroup group = OidGroup.of(oids[i]);
+			if (!dueTables.contains(oids[i])) continue;
+
+			SnmpTable result = futures.get(i).join();
+			if (result == null || result.isEmpty() || !result.isComplete()) {
+				failed.add(group);
+			} else {
+				state.setLastResult(oids[i], result);
+				walked.add(oids[i]);
+			}
+		}
+		for (OidGroup group : due) {
+			if (!failed.contains(group)) {
+				state.walked(group, now);
+			}
+		}
+		return walked;
+	}
+
+	/**
+	 * @description Send Asynchronously SNMP GET-SUBTREE.
+	 * 	The returned future is completed from the TreeListener callbacks, so no thread waits on the walk.
+	 * 	After threadTimeoutMills, or on an error, it is completed with whatever was received so far, marked incomplete.
+	 * 	The walk outcome is fed back to the device's BulkSizeController.
+	 * @param tableOid
+	 * @param target
+	 * @param idx
+	 * @param snmp
+	 * @param ipaddress
+	 * @param version
+	 * @param bulkSize
+	 * @param traffic
+	 * @return {CompletableFuture}
+	 */
+	private CompletableFuture<SnmpTable> sendAsyncRequest(String tableOid, Target target, String idx, Snmp snmp, String ipaddress, String version,
+			BulkSizeController bulkSize, TrafficStats traffic) {
+
+		final SnmpTable result = new SnmpTable();
+		final CompletableFuture<SnmpTable> fut = new CompletableFuture<>();
+		final int repetitions = bulkSize.current();
+
+		TreeUtils treeUtils = new TreeUtils(snmp, getPduFactory(version, repetitions));
+
+		treeUtils.setMaxRepetitions(repetitions); // default is 10
+
+		final long start = System.currentTimeMillis();
+		final WalkStats stats = new WalkStats(repetitions, start);
+
+		final ScheduledFuture<?> walkTimeout = walkTimer.schedule(() -> {
+			if (fut.isDone()) return;
+			stats.outcome = BulkSizeController.WALK_TIMEOUT; // before complete(), which reports the stats
+			if (fut.complete(snapshot(result).incomplete())) {
+				traffic.timeouts.incrementAndGet();
+				System.err.println("Error end occursNo:"+idx+", ipaddress:"+ipaddress+", oid:"+tableOid+", walk timeout : "+threadTimeoutMills+"ms");
+			}
+		}, threadTimeoutMills, TimeUnit.MILLISECONDS);
+		fut.whenComplete((r, t) -> {
+			walkTimeout.cancel(false);
+			if (stats.outcome == BulkSizeController.WALK_TOO_BIG) traffic.tooBig.incrementAndGet();
+			stats.report(bulkSize);
+		});
+
+		treeUtils.getSubtree(target, new OID(tableOid), null, new TreeListener() {
+
+			@Override
+			public boolean next(TreeEvent event) {
+				stats.onEvent(event);
+				traffic.received(event);
+				if (!resultProcess(result, event, ipaddress, tableOid)) {
+					fut.complete(snapshot(result).incomplete());
+					return false;
+				}
+				return true;
+			}
+
+			@Override
+			public boolean isFinished() {
+				return fut.isDone();
+			}
+
+			@Override
+			public void finished(TreeEvent event) {
+				stats.onEvent(event);
+				traffic.received(event);
+				resultProcess(result, event, ipaddress, tableOid);
+				// the walk ends normally without an error status, a timeout / tooBig / report ends it early
+				SnmpTable walked = snapshot(result);
+				fut.complete(event != null && !event.isError() ? walked : walked.incomplete());
+				/*System.out.println("end occursNo:"+idx+", ipaddress:"+ipaddress+", oid:"+tableOid+
+						", elapsed: "+(System.currentTimeMillis() - start)+"ms");*/
+			}
+		});
+
+		return fut;
+	}
+
+	/**
+	 * @description Send one asynchronous multi-column GETBULK table request (TableUtils) for all walked tables.
+	 * 	Only the columns the enabled metrics read are requested (see columnsOf).
+	 * 	Rows are split back into one SnmpTable per walked table, the same result a subtree walk produces.
+	 * @param walkTables
+	 * @param plan
+	 * @param target
+	 * @param idx
+	 * @param ipaddress
+	 * @param version
+	 * @param bulkSize rows per PDU = learned max-repetitions / number of columns
+	 * @param traffic
+	 * @return {CompletableFuture} table oid -> result
+	 */
+	private CompletableFuture<Map<String,SnmpTable>> sendTableRequest(Set<String> walkTables, MetricDefinitions.Plan plan, Target target, String idx, String ipaddress, String version,
+			BulkSizeController bulkSize, TrafficStats traffic) {
+
+		final Map<String,SnmpTable> tables = new HashMap<>();
+		final List<OID> columns = new ArrayList<>();
+		final List<SnmpTable> columnTable = new ArrayList<>();
+		for (String tableOid : oids) {
+			if (!walkTables.contains(tableOid)) continue;
+			SnmpTable table = new SnmpTable();
+			tables.put(tableOid, table);
+			for (String column : columnsOf(plan, tableOid)) {
+				columns.add(new OID(column));
+				columnTable.add(table);
+			}
+		}
+
+		final CompletableFuture<Map<String,SnmpTable>> fut = new CompletableFuture<>();
+		final int repetitions = bulkSize.current();
+		final int[] outcome = {BulkSizeController.WALK_OK};
+
+		TableUtils tableUtils = new TableUtils(snmp, traffic.counting(getPduFactory(version, repetitions)));
+		// the process table has by far the most rows, so once the short tables are done the stream carries its
+		// process columns only : size rows so those PDUs hold about as many varbinds as one subtree walk response
+		int processColumns = 0;
+		for (String tableOid : OidGroup.PROCESS.getTableOids()) {
+			if (walkTables.contains(tableOid)) processColumns++;
+		}
+		int streamColumns = processColumns > 0 ? processColumns : columns.size();
+		tableUtils.setMaxNumColumnsPerPDU(columns.size());
+		tableUtils.setMaxNumRowsPerPDU(Math.max(1, repetitions / streamColumns));
+
+		final ScheduledFuture<?> walkTimeout = walkTimer.schedule(() -> {
+			if (fut.isDone()) return;
+			outcome[0] = BulkSizeController.WALK_TIMEOUT;
+			if (fut.complete(snapshotTables(tables, false))) {
+				traffic.timeouts.incrementAndGet();
+				System.err.println("Error end occursNo:"+idx+", ipaddress:"+ipaddress+", table request timeout : "+threadTimeoutMills+"ms");
+			}
+		}, threadTimeoutMills, TimeUnit.MILLISECONDS);
+		fut.whenComplete((r, t) -> {
+			walkTimeout.cancel(false);
+			// rows are not delivered per PDU, so only failures feed the controller
+			bulkSize.onWalk(repetitions, outcome[0], 0, 0, 0, 0);
+		});
+
+		tableUtils.getTable(target, columns.toArray(new OID[columns.size()]), new TableListener() {
+
+			@Override
+			public boolean next(TableEvent event) {
+				if (event.isError()) {
+					failed(event);
+					return false;
+				}
+				VariableBinding[] row = event.getColumns();
+				traffic.received(row);
+				synchronized (tables) {
+					for (int i=0; row != null && i<row.length; i++) {
+						columnTable.get(i).add(row[i]);
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public boolean isFinished() {
+				return fut.isDone();
+			}
+
+			@Override
+			public void finished(TableEvent event) {
+				if (event != null && event.isError()) {
+					failed(event);
+				}
+				fut.complete(snapshotTables(tables, true));
+			}
+
+			private void failed(TableEvent event) {
+				System.err.println("err:{}, ip:{}, table request" + event.getErrorMessage() + ", " + ipaddress);
+				if (event.getStatus() == TableEvent.STATUS_TIMEOUT) {
+					outcome[0] = BulkSizeController.WALK_TIMEOUT;
+				} else if (event.getStatus() == PDU.tooBig) {
+					outcome[0] = BulkSizeController.WALK_TOO_BIG;
+					traffic.tooBig.incrementAndGet();
+				}
+				fut.complete(snapshotTables(tables, false));
+			}
+		}, null, null, null);
+
+		return fut;
+	}
+
+	/**
+	 * @description columns requested for a table in table retrieval mode : the columns the metrics read,
+	 * 	for hrStorage always with hrStorageSize and hrStorageUsed (StorageMetadata probes them)
+	 * @param plan
+	 * @param tableOid
+	 * @return {String[]}
+	 */
+	private String[] columnsOf(MetricDefinitions.Plan plan, String tableOid) {
+		String[] columns = plan.columnsOf(tableOid);
+		if (!oids[0].equals(tableOid)) {
+			return columns;
+		}
+		Set<String> storage = new LinkedHashSet<>(Arrays.asList(columns));
+		storage.add(StorageMetadata.hrStorageSize);
+		storage.add(StorageMetadata.hrStorageUsed);
+		return storage.toArray(new String[storage.size()]);
+	}
+
+	/**
+	 * @param tables
+	 * @param complete false if the table request ended early, every table is marked incomplete
+	 */
+	private Map<String,SnmpTable> snapshotTables(Map<String,SnmpTable> tables, boolean complete) {
+		synchronized (tables) {
+			Map<String,SnmpTable> copy = new HashMap<>();
+			for (Map.Entry<String,SnmpTable> e : tables.entrySet()) {
+				SnmpTable table = e.getValue().copy();
+				copy.put(e.getKey(), complete ? table : table.incomplete());
+			}
+			return copy;
+		}
+	}
+
+	/**
+	 * @description request PDUs and received varbinds of one device poll, to compare retrieval modes
+	 * 	(TreeUtils reuses one PDU per walk, so subtree requests are counted per response event;
+	 * 	TableUtils creates a PDU per request, so table requests are counted at the factory),
+	 * 	and the walks / requests that hit threadTimeoutMills or got tooBig, for PollStats
+	 */
+	private static final class TrafficStats {
+		final AtomicInteger pdus = new AtomicInteger();
+		final AtomicInteger varbinds = new AtomicInteger();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicInteger timeouts = new AtomicInteger();
+		final AtomicInteger tooBig = new AtomicInteger();
+
+		/**
+		 * @description wrap a PDU factory so every request PDU the utility sends is counted
+		 */
+		PDUFactory counting(final PDUFactory factory) {
+			return new PDUFactory() {
+				@Override
+				public PDU createPDU(Target target) {
+					pdus.incrementAndGet();
+					return factory.createPDU(target);
+				}
+
+				@Override
+				public PDU createPDU(MessageProcessingModel messageProcessingModel) {
+					pdus.incrementAndGet();
+					return factory.createPDU(messageProcessingModel);
+				}
+			};
+		}
+
+		void received(TreeEvent event) {
+			if (event == null || event.isError()) return;
+			pdus.incrementAndGet();
+			received(event.getVariableBindings());
+		}
+
+		void received(VariableBinding[] vbs) {
+			if (vbs == null) return;
+			for (VariableBinding vb : vbs) {
+				if (vb == null) continue;
+				varbinds.incrementAndGet();
+				bytes.addAndGet(vb.getBERLength());
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "pdus:" + pdus + ", varbinds:" + varbinds + ", varbind bytes:" + bytes;
+		}
+	}
+
+	/**
+	 * @description round trips and response sizes of one walk, for BulkSizeController
+	 * 	(events of one walk arrive one after another on the listener thread)
+	 */
+	private static final class WalkStats {
+		final int repetitions;
+		long lastEventMills;
+		int responses;
+		int fullResponses;
+		int truncatedRows;
+		int lastRows = -1;
+		long sumRttMills;
+		volatile int outcome = BulkSizeController.WALK_OK;
+
+		WalkStats(int repetitions, long start) {
+			this.repetitions = repetitions;
+			this.lastEventMills = start;
+		}
+
+		synchronized void onEvent(TreeEvent event) {
+			if (event == null) return;
+			if (event.getStatus() == TreeEvent.STATUS_TIMEOUT) {
+				outcome = BulkSizeController.WALK_TIMEOUT;
+				return;
+			}
+			if (event.getStatus() == PDU.tooBig) {
+				outcome = BulkSizeController.WALK_TOO_BIG;
+				return;
+			}
+			if (event.isError()) return;
+
+			long now = System.currentTimeMillis();
+			sumRttMills += now - lastEventMills;
+			lastEventMills = now;
+			responses++;
+
+			// a short response followed by another one means the agent truncated it
+			if (lastRows >= 0 && lastRows < repetitions) {
+				truncatedRows = truncatedRows == 0 ? lastRows : Math.min(truncatedRows, lastRows);
+			}
+			VariableBinding[] vbs = event.getVariableBindings();
+			lastRows = vbs == null ? 0 : vbs.length;
+			if (lastRows >= repetitions) {
+				fullResponses++;
+			}
+		}
+
+		synchronized void report(BulkSizeController bulkSize) {
+			bulkSize.onWalk(repetitions, outcome, responses, fullResponses, truncatedRows, sumRttMills);
+		}
+	}
+
+	/**
+	 * @description copy of a walk result, taken under the same lock the listener writes with
+	 * @param result
+	 * @return {SnmpTable}
+	 */
+	private SnmpTable snapshot(SnmpTable result) {
+		return result.copy();
+	}
+
+
+	/**
+	 * @description result method
+	 * @param result
+	 * @param event
+	 * @return
+	 */
+	private boolean resultProcess(SnmpTable result, TreeEvent event, String ipAddr, String tableOid) {
+		if ( event == null ) {
+			System.err.println("event is null, ip:{}, oid:{}" +  ipAddr + ", " +  tableOid);
+			return false;
+		} else {
+			if ( event.isError() ) {
+				System.err.println("err:{}, ip:{}, oid:{}" + event.getErrorMessage() + ", " + ipAddr + ", " + tableOid);
+				return false;
+			} else {
+				VariableBinding[] varBindings = event.getVariableBindings();
+				if (varBindings == null || varBindings.length == 0) {
+					System.err.println("varBinding is null, ip:{}, oid:{}" + ipAddr + ", " + tableOid);
+					return false;
+				} else {
+					ingest(result, varBindings);
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @description add the varbinds of one response to the walk result
+	 * @param result
+	 * @param varBindings
+	 */
+	static void ingest(SnmpTable result, VariableBinding[] varBindings) {
+		synchronized (result) {
+			for (VariableBinding varBinding : varBindings) {
+				if (varBinding == null) {
+					continue;
+				}
+
+				// System.out.println("oid: " + varBinding.getOid().toString() + " value: " + varBinding.getVariable().toString());
+				result.add(varBinding);
+			}
+		}
+	}
+
+
+
+	private Target getTarget(final String ipaddress, final String community, final String version,
+			final String passwd) {
+		Target target;
+		if ( "v3".equals(version) ) {
+			// the shared USM registers the user once, the engine ID known from an earlier poll saves the discovery
+			UserTarget userTarget = createCommunity(ipaddress, community, passwd);
+			OctetString engineId = USMFactory.getInstance().prepare(snmp, userTarget.getAddress(), community,
+					this.authProtocol, passwd, this.privProtocol, passwd);
+			if (engineId != null) {
+				userTarget.setAuthoritativeEngineID(engineId.getValue());
+			}
+			target = userTarget;
+		} else {
+			target = createCommunity(ipaddress, community);
+		}
+		return target;
+	}
+	
+	
+
+
+	/**
+	 * @description an SNMPv3 agent that stopped answering may have a new engine ID, it is discovered again on the next poll
+	 * @param target
+	 */
+	private void forgetEngine(Target target) {
+		if (target instanceof UserTarget) {
+			USMFactory.getInstance().forget(snmp, target.getAddress());
+		}
+	}
+
+	/**
+	 * @description agent address of the inventory ip : <ip> (port 161) or <ip>/<port>
+	 * @param ip
+	 * @return {String}
+	 */
+	static String udpAddress(String ip) {
+		return ip.indexOf('/') >= 0 ? "udp:" + ip : "udp:" + ip + "/161";
+	}
+
+	/**
+	 * @description Create SNMP Community Target
+	 * @param ip
+	 * @param community
+	 * @return {CommunityTarget}
+	 */
+	private CommunityTarget createCommunity(String ip, String community) {
+		CommunityTarget target = new CommunityTarget();
+		target.setCommunity(new OctetString(community));
+		target.setAddress(GenericAddress.parse(udpAddress(ip)));
+		target.setRetries(snmpRetries);
+		target.setTimeout(snmpTimeout);
+		target.setVersion(SnmpConstants.version2c);
+		return target;
+	}
+
+	/**
+	 * @description Create SNMP User Target For SNMPv3
+	 * @param ip
+	 * @param community
+	 * @param passwd
+	 * @return {UserTarget}
+	 */
+	private UserTarget createCommunity(String ip, String community, String passwd) {
+		UserTarget target = new UserTarget();
+		target.setAddress(GenericAddress.parse(udpAddress(ip)));
+		target.setRetries(snmpRetries);
+		target.setTimeout(snmpTimeout);
+		target.setVersion(SnmpConstants.version3);
+		target.setSecurityLevel(SecurityLevel.AUTH_PRIV);
+		target.setSecurityName(new OctetString(community));
+
+		return target;
+	}
+
+	/**
+	 * @description GETBULK PDU factory of the snmp version
+	 * @param version
+	 * @param repetitions
+	 * @return {PDUFactory}
+	 */
+	private PDUFactory getPduFactory(String version, int repetitions) {
+		if ("v3".equals(version)) {
+			return new SysmonPduFactory(repetitions);
+		}
+		return new DefaultPDUFactory(PDU.GETBULK);
+	}
+
+	/**
+	 * @description Create PDU For SNMPv3
+	 * @author user
+	 *	
+	 */
+	private final class SysmonPduFactory implements PDUFactory {
+		private final int repetitions;
+
+		SysmonPduFactory(int repetitions) {
+			this.repetitions = repetitions;
+		}
+
+		@Override
+		public PDU createPDU(Target target) {
+			return getPDU(repetitions);
+		}
+
+		@Override
+		public PDU createPDU(MessageProcessingModel messageProcessingModel) {
+			return getPDU(repetitions);
+		}
+	}
+
+	/**
+	 * @description create the PDU For SNMPv3
+	 * @param maxRepetitions learned for the device
+	 * @return {PDU}
+	 */
+	private PDU getPDU(int maxRepetitions) {
+		PDU pdu = new ScopedPDU();
+		// pdu.add(new VariableBinding(SnmpConstants.sysDescr ));
+		pdu.setType(PDU.GETBULK);
+		pdu.setMaxRepetitions(maxRepetitions); //or any number you wish
+		return pdu;
+	}
+
+	static String getDecodeStr(String org) {
+		try {
+			if ( org.split(":").length >= 5 ) {
+				return URLDecoder.decode("%"+org.replace(":", "%"),"euc-kr");
+			} else {
+				return org;
+			}
+		} catch (UnsupportedEncodingException e) {
+			return org;
+		}
+	}
+}
+
@@ -0,0 +1,242 @@
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+/**
+ * @description Per-device scheduling instead of one burst per interval.
+ * 	Every device gets its own phase offset inside the interval and is fired from a TimingWheel,
+ * 	so UDP traffic and agent load stay flat across the interval.
+ *
+ * 	poller.stagger=hash   : offset from a hash of the deviceid (stable across restarts and list edits)
+ * 	poller.stagger=spread : devices spread evenly in list order (hash in cluster mode)
+ *
+ * 	Phases are counted from an interval boundary of the epoch, a device fires at k * interval + offset
+ * 	on every node and after every restart.
+ *
+ * 	Once per interval the planned vs actual fire times are reported.
+ *
+ * 	Inventory reloads are applied as a difference : added devices are scheduled at their offset, removed devices
+ * 	stop after their current poll, changed devices keep their phase and use the new record from the next fire.
+ *
+ * 	In cluster mode every device stays on the wheel and a fire is skipped if another node owns the device at its planned
+ * 	fire time (ClusterNode), so a rebalance only changes which fires poll and a moved device is polled once per interval.
+ *
+ * 	With poller.coalesce a device whose agent is polled through another device (DeviceInventory.isPolled) stays on the
+ * 	wheel too and its fires are skipped; if the polling device leaves the inventory the next one takes over at its own phase.
+ */
+public class StaggeredScheduler {
+
+	private final long intervalMills;
+	private final String stagger;
+	private final TimingWheel wheel;
+
+	/**
+	 * device still being polled, a device is never in flight twice
+	 * */
+	private final Map<String,Future<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * scheduled task of every inventory device
+	 * */
+	private final Map<String,DeviceTask> tasks = new ConcurrentHashMap<>();
+
+	private final DeviceInventory.Listener inventoryListener = this::inventoryChanged;
+	private DeviceInventory inventory = null;
+	private long base;
+
+	private final FireStats stats = new FireStats();
+
+	public StaggeredScheduler(long intervalMills, long tickMills, String stagger) {
+		this.intervalMills = intervalMills;
+		this.stagger = stagger;
+		int wheelSize = (int) Math.max(1, intervalMills / tickMills);
+		this.wheel = new TimingWheel(tickMills, wheelSize, "snmp-timing-wheel");
+	}
+
+	public static StaggeredScheduler fromConfig() {
+		PollerConfig config = PollerConfig.getInstance();
+		return new StaggeredScheduler(
+				config.getLong("poller.interval.seconds", 10) * 1000,
+				config.getLong("poller.wheel.tick.millis", 100),
+				config.getString("poller.stagger", "hash"));
+	}
+
+	public void start() {
+		// join the cluster before the first fire (no-op without cluster mode)
+		ClusterNode.getInstance();
+		inventory = SnmpPoller.getInventory();
+		wheel.start();
+
+		// list order differs between nodes, the phases of a cluster must not
+		boolean spread = "spread".equalsIgnoreCase(stagger) && ClusterNode.getInstance() == null;
+		List<Device> servers;
+		synchronized (this) {
+			servers = inventory.devices();
+			long now = System.currentTimeMillis();
+			base = now - Math.floorMod(now, intervalMills);
+			for (int i=0; i<servers.size(); i++) {
+				Device server = servers.get(i);
+				long offset = spread
+						? i * intervalMills / servers.size()
+						: hashOffset(server.getDeviceId());
+				schedule(server, base + offset < now ? base + offset + intervalMills : base + offset);
+			}
+			inventory.addListener(inventoryListener);
+		}
+		wheel.schedule(new ReportTask(), base + intervalMills);
+
+		System.out.println("staggered scheduler started, devices:" + servers.size() + ", interval:" + intervalMills
+				+ "ms, tick:" + wheel.getTickMills() + "ms, stagger:" + (spread ? "spread" : "hash"));
+	}
+
+	public void stop() {
+		if (inventory != null) inventory.removeListener(inventoryListener);
+		wheel.stop();
+		for (Future<Boolean> f : inFlight.values()) {
+			f.cancel(true);
+		}
+		inFlight.clear();
+	}
+
+	private void schedule(Device server, long firstMills) {
+		DeviceTask task = new DeviceTask(server);
+		tasks.put(server.getDeviceId(), task);
+		wheel.schedule(task, firstMills);
+	}
+
+	/**
+	 * @description apply an inventory reload (watcher thread). Added devices start at their hash offset,
+	 * 	also in spread mode, so the phases of the scheduled devices stay where they are
+	 * @param diff
+	 */
+	private synchronized void inventoryChanged(DeviceInventory.Diff diff) {
+		for (Device server : diff.getRemoved()) {
+			DeviceTask task = tasks.remove(server.getDeviceId());
+			if (task != null) task.removed = true;
+		}
+		for (Device server : diff.getChanged()) {
+			DeviceTask task = tasks.get(server.getDeviceId());
+			if (task != null) task.server = server;
+		}
+		long now = System.currentTimeMillis();
+		for (Device server : diff.getAdded()) {
+			DeviceTask previous = tasks.get(server.getDeviceId());
+			if (previous != null) previous.removed = true;
+			long offset = hashOffset(server.getDeviceId());
+			long elapsed = Math.max(0, now - base - offset);
+			schedule(server, base + offset + (elapsed + intervalMills - 1) / intervalMills * intervalMills);
+		}
+		System.out.println("staggered scheduler inventory " + diff + ", devices:" + tasks.size());
+	}
+
+	/**
+	 * @description phase offset inside the interval from the deviceid (murmur3 finalizer, so near ids do not cluster)
+	 * @param deviceId
+	 * @return {long}
+	 */
+	private long hashOffset(String deviceId) {
+		int h = deviceId.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return (h & 0x7fffffffL) % intervalMills;
+	}
+
+	/**
+	 * @description fires one device and puts itself back on the wheel one interval later
+	 */
+	private final class DeviceTask implements TimingWheel.Task {
+		private volatile Device server;
+		private volatile boolean removed = false;
+		private final String deviceId;
+
+		DeviceTask(Device server) {
+			this.server = server;
+			this.deviceId = server.getDeviceId();
+		}
+
+		@Override
+		public void fire(long plannedMills, long actualMills) {
+			// a device that left the inventory is not planned again
+			if (removed) return;
+			// next fire is planned from the previous plan, so lag never accumulates
+			wheel.schedule(this, plannedMills + intervalMills);
+
+			if (!inventory.isPolled(deviceId)) {
+				stats.shared++;
+				return;
+			}
+			if (!ClusterNode.owns(deviceId, plannedMills)) {
+				stats.notOwned++;
+				return;
+			}
+
+			Future<Boolean> previous = inFlight.get(deviceId);
+			if (previous != null && !previous.isDone()) {
+				stats.skipped++;
+				System.err.println("previous poll still running, skip deviceid : " + deviceId);
+				return;
+			}
+			stats.record(plannedMills, actualMills);
+			try {
+				inFlight.put(deviceId, SnmpPoller.pollDevice(server));
+			} catch (IOException e) {
+				System.err.println("snmp session open exception : " + e);
+			}
+		}
+	}
+
+	/**
+	 * @description prints planned vs actual fire times of the last interval
+	 */
+	private final class ReportTask implements TimingWheel.Task {
+		@Override
+		public void fire(long plannedMills, long actualMills) {
+			wheel.schedule(this, plannedMills + intervalMills);
+			System.out.println("Wheel Report [" + new Date(actualMills) + "] " + stats.reset());
+		}
+	}
+
+	/**
+	 * @description fire lag statistics, only touched from the wheel thread
+	 */
+	private static final class FireStats {
+		long fired;
+		long skipped;
+		long notOwned;
+		long shared;
+		long sumLag;
+		long maxLag;
+		long lastTickMills;
+		long tickFired;
+		long maxTickFired;
+
+		void record(long plannedMills, long actualMills) {
+			long lag = actualMills - plannedMills;
+			fired++;
+			sumLag += lag;
+			maxLag = Math.max(maxLag, lag);
+
+			// devices of one wheel tick share the same actual time
+			if (actualMills != lastTickMills) {
+				lastTickMills = actualMills;
+				tickFired = 0;
+			}
+			maxTickFired = Math.max(maxTickFired, ++tickFired);
+		}
+
+		String reset() {
+			String s = "fired:" + fired + ", skipped:" + skipped + (notOwned > 0 ? ", other nodes:" + notOwned : "")
+					+ (shared > 0 ? ", shared agents:" + shared : "")
+					+ ", lag avg:" + (fired == 0 ? 0 : sumLag / fired) + "ms, lag max:" + maxLag + "ms"
+					+ ", max devices per tick:" + maxTickFired;
+			fired = skipped = notOwned = shared = sumLag = maxLag = maxTickFired = 0;
+			return s;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * @description Static hrStorage columns of one device (hrStorageDescr, hrStorageType ... every column except
+ * 	hrStorageSize and hrStorageUsed) and its storage indexes. Built once from a full hrStorage walk and kept
+ * 	in DeviceState. While it is valid a poll only needs one GETNEXT probe of sysUpTime, hrStorageSize and
+ * 	hrStorageUsed (see probeOids / checkProbe); the cached columns are added to the probe result, so the
+ * 	metrics read it like a walk result.
+ *
+ * 	The probe asks GETNEXT of the previous known index for every known index, so every returned oid
+ * 	must be exactly the expected column.index. A removed or inserted row shows up as a different oid,
+ * 	an appended row as one more row after the last known index, a reboot as sysUpTime going backwards.
+ */
+public class StorageMetadata {
+
+	public final static String hrStorageSize = ".1.3.6.1.2.1.25.2.3.1.5";
+	public final static String hrStorageUsed = ".1.3.6.1.2.1.25.2.3.1.6";
+	public final static OID sizeColumn = new OID(hrStorageSize);
+	public final static OID usedColumn = new OID(hrStorageUsed);
+	private final static OID sysUpTime = new OID(".1.3.6.1.2.1.1.3");
+	private final static OID sysUpTimeInstance = new OID(".1.3.6.1.2.1.1.3.0");
+
+	private final int[] indexes;
+	private final List<SnmpTable.Column> staticColumns = new ArrayList<>();
+
+	private final OID[] probeOids;
+	private final OID[] expectedOids;
+
+	/**
+	 * hundredths of a second, -1 until the first probe
+	 * */
+	private volatile long lastSysUpTime = -1;
+
+	/**
+	 * @description build from a full hrStorage walk, the storage indexes are the hrStorageSize rows
+	 * @param storage walk result (not changed afterwards, its columns are shared)
+	 * @return {StorageMetadata} or null if the walk has no hrStorageSize rows
+	 */
+	public static StorageMetadata fromWalk(SnmpTable storage) {
+		SnmpTable.Column size = storage == null ? null : storage.column(sizeColumn);
+		if (size == null || size.size() == 0) return null;
+
+		int[] indexes = new int[size.size()];
+		for (int i=0; i<indexes.length; i++) indexes[i] = size.row(i);
+		Arrays.sort(indexes);
+		return new StorageMetadata(indexes, storage);
+	}
+
+	private StorageMetadata(int[] indexes, SnmpTable storage) {
+		final int n = indexes.length;
+		this.indexes = indexes;
+		for (SnmpTable.Column column : storage.columns()) {
+			if (!column.getOid().equals(sizeColumn) && !column.getOid().equals(usedColumn)) {
+				staticColumns.add(column);
+			}
+		}
+
+		this.probeOids = new OID[2 * n + 2];
+		this.expectedOids = new OID[2 * n + 1];
+		probeOids[0] = sysUpTime;
+		expectedOids[0] = sysUpTimeInstance;
+
+		for (int i=0; i<n; i++) {
+			probeOids[1 + i] = i == 0 ? sizeColumn : new OID(sizeColumn).append(indexes[i - 1]);
+			probeOids[1 + n + i] = i == 0 ? usedColumn : new OID(usedColumn).append(indexes[i - 1]);
+			expectedOids[1 + i] = new OID(sizeColumn).append(indexes[i]);
+			expectedOids[1 + n + i] = new OID(usedColumn).append(indexes[i]);
+		}
+		// GETNEXT after the last known size row must leave the column, otherwise a row was appended
+		probeOids[2 * n + 1] = new OID(sizeColumn).append(indexes[n - 1]);
+	}
+
+	public int size() {
+		return indexes.length;
+	}
+
+	public int index(int i) {
+		return indexes[i];
+	}
+
+	/**
+	 * @return {OID[]} GETNEXT varbinds of the probe
+	 */
+	public OID[] probeOids() {
+		return probeOids;
+	}
+
+	/**
+	 * @description check a probe response and convert it to a walk result
+	 * @param vbs response varbinds in probeOids order
+	 * @return {SnmpTable} hrStorageSize / hrStorageUsed of the known rows and the cached columns, or null if the metadata is stale
+	 */
+	public SnmpTable checkProbe(VariableBinding[] vbs) {
+		if (vbs == null || vbs.length != probeOids.length) return null;
+		for (int i=0; i<expectedOids.length; i++) {
+			if (vbs[i] == null || !expectedOids[i].equals(vbs[i].getOid()) || vbs[i].isException()) return null;
+		}
+		if (vbs[probeOids.length - 1].getOid().startsWith(sizeColumn)) return null;
+
+		long upTime = vbs[0].getVariable().toLong();
+		if (upTime < lastSysUpTime) return null; // rebooted, indexes may have been reassigned
+		lastSysUpTime = upTime;
+
+		SnmpTable result = new SnmpTable();
+		for (int i=1; i<expectedOids.length; i++) {
+			result.add(vbs[i]);
+		}
+		for (SnmpTable.Column column : staticColumns) {
+			result.putColumn(column);
+		}
+		return result;
+	}
+}
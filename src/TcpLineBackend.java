@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @description MetricSink backend that sends every batch in line protocol over one TCP connection
+ * 	(e.g. a local telegraf socket_listener). A broken connection fails the batch and is opened again
+ * 	on a later batch, at most once per reconnectMills. Writes are non-blocking with a deadline of
+ * 	writeTimeoutMills per batch : a collector that accepts but stops reading fills the TCP window,
+ * 	the batch fails and the connection is dropped, so the writer thread never hangs on a dead collector.
+ */
+public class TcpLineBackend implements MetricSink.Backend {
+
+	private final static int connectTimeoutMills = 3000;
+	private final static long writeTimeoutMills = 5000;
+	private final static long reconnectMills = 5000;
+
+	private final String host;
+	private final int port;
+	private final StringBuilder sb = new StringBuilder(64 * 1024);
+	private SocketChannel channel;
+	private Selector selector;
+	private long nextConnectMills = 0;
+
+	public TcpLineBackend(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	@Override
+	public void write(MetricSink.Batch batch) throws IOException {
+		if (channel == null) {
+			connect();
+		}
+		sb.setLength(0);
+		for (int i=0; i<batch.size(); i++) {
+			batch.appendLine(i, sb);
+		}
+		ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+		long deadline = System.currentTimeMillis() + writeTimeoutMills;
+		try {
+			while (buf.hasRemaining()) {
+				if (channel.write(buf) > 0) continue;
+				// send buffer full : wait until the collector reads, up to the deadline
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					throw new IOException("write to " + host + ":" + port + " timed out after " + writeTimeoutMills
+							+ "ms, " + buf.remaining() + " bytes not sent");
+				}
+				selector.select(wait);
+				selector.selectedKeys().clear();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private void connect() throws IOException {
+		long now = System.currentTimeMillis();
+		if (now < nextConnectMills) {
+			throw new IOException("not connected to " + host + ":" + port);
+		}
+		nextConnectMills = now + reconnectMills;
+		SocketChannel ch = SocketChannel.open();
+		Selector sel = null;
+		try {
+			ch.socket().connect(new InetSocketAddress(host, port), connectTimeoutMills);
+			ch.socket().setTcpNoDelay(true);
+			ch.configureBlocking(false);
+			sel = Selector.open();
+			ch.register(sel, SelectionKey.OP_WRITE);
+		} catch (IOException e) {
+			if (sel != null) sel.close();
+			ch.close();
+			throw e;
+		}
+		channel = ch;
+		selector = sel;
+		System.out.println("metric sink connected to " + host + ":" + port);
+	}
+
+	@Override
+	public void close() {
+		if (channel != null) {
+			try {
+				selector.close();
+				channel.close();
+			} catch (IOException e) {
+				System.err.println("metric socket close exception : " + e);
+			}
+		}
+		channel = null;
+		selector = null;
+	}
+}
@@ -0,0 +1,67 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @description Platform vs virtual thread comparison run.
+ * 	Each task blocks like SnmpWorker does in walks.get() (sleep stands in for the network wait).
+ * 	usage : ThreadModeTest [devices] [blockMills] [platformPoolSize]
+ * 	        ThreadModeTest servers   (one real poll cycle of config/servers.txt per mode)
+ */
+public class ThreadModeTest {
+
+	private static final int occursCount = 10000;
+	private static final long blockMills = 1000;
+	private static final int threadPoolSize = 64;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0 && "servers".equals(args[0])) {
+			new ThreadModeTest().serversCycle();
+			return;
+		}
+		int devices = args.length > 0 ? Integer.parseInt(args[0]) : occursCount;
+		long block = args.length > 1 ? Long.parseLong(args[1]) : blockMills;
+		int poolSize = args.length > 2 ? Integer.parseInt(args[2]) : threadPoolSize;
+
+		ThreadModeTest test = new ThreadModeTest();
+		test.syntheticCycle(PollThreadMode.PLATFORM, devices, block, poolSize);
+		test.syntheticCycle(PollThreadMode.VIRTUAL.effective(), devices, block, poolSize);
+	}
+
+	private void syntheticCycle(PollThreadMode mode, int devices, long block, int poolSize) throws InterruptedException {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		mx.resetPeakThreadCount();
+
+		ExecutorService es = mode.newExecutor(poolSize);
+		List<Callable<Boolean>> tasks = new ArrayList<>(devices);
+		for (int i=0; i<devices; i++) {
+			tasks.add(() -> {
+				Thread.sleep(block);
+				return true;
+			});
+		}
+
+		final long start = System.currentTimeMillis();
+		List<Future<Boolean>> futures = es.invokeAll(tasks);
+		final long elapsed = System.currentTimeMillis() - start;
+		es.shutdown();
+		es.awaitTermination(10, TimeUnit.SECONDS);
+
+		System.out.println("mode:" + mode + ", devices:" + futures.size() + ", block:" + block + "ms"
+				+ (mode == PollThreadMode.PLATFORM ? ", pool:" + poolSize : "")
+				+ ", elapsed:" + elapsed + "ms, peak platform threads:" + mx.getPeakThreadCount());
+	}
+
+	private void serversCycle() {
+		for (PollThreadMode mode : PollThreadMode.values()) {
+			System.setProperty("poller.thread.mode", mode.name());
+			new SnmpPoller().executeCall();
+			SnmpPoller.shutdown();
+		}
+	}
+}
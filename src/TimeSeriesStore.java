@@ -0,0 +1,436 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @description Local history of the published poll results (MetricSink backend "store").
+ * 	Append-only store of memory-mapped segment files, one series per (device, metric).
+ *
+ * 	- samples of a series are compressed into a GorillaChunk (delta-of-delta time, XOR value) kept in memory
+ * 	  until it has store.chunk.samples samples or its time segment is over, then the chunk is appended
+ * 	  to the mapped file of its segment as one record
+ * 	- segments cover store.segment.hours each : store.dir/seg-<segment start>-<part>.tsdb, a new part
+ * 	  is opened when a file (store.segment.mb) is full
+ * 	- segments older than store.retention.hours are deleted when a new segment starts
+ * 	- on start the records of the existing segment files are indexed again
+ *
+ * 	record : int length, short key length, key (device \0 metric), long first time, long last time,
+ * 	         int sample count, int byte count, encoded bytes
+ *
+ * 	An open chunk is also written once it has been open for store.chunk.flush.seconds (checked as batches come in,
+ * 	every tenth of that time) and the written segment files are forced to disk, so a crash or kill loses at most
+ * 	about that much of every series instead of a whole chunk. flush() / close() (poller shutdown) write the rest.
+ * 	Samples older than the last sample of their series are dropped and counted.
+ */
+public class TimeSeriesStore implements MetricSink.Backend {
+
+	private final static int magic = 0x54534442; // TSDB
+	private final static int version = 1;
+	private final static int headerBytes = 4 + 4 + 8 + 8;
+
+	private static TimeSeriesStore store = null;
+
+	private final File dir;
+	private final long segmentMills;
+	private final int segmentBytes;
+	private final int chunkSamples;
+	private final long retentionMills;
+	private final long chunkFlushMills;
+	private long nextFlushCheckMills = 0;
+
+	private final Map<String,Series> series = new HashMap<>();
+	private final TreeMap<Long,List<Segment>> segments = new TreeMap<>();
+
+	private long appended = 0;
+	private long outOfOrder = 0;
+	private long chunksWritten = 0;
+	private long bytesWritten = 0;
+
+	/**
+	 * @return {TimeSeriesStore} the store of store.dir, opened on first use
+	 */
+	public static synchronized TimeSeriesStore getInstance() {
+		if (store == null) {
+			PollerConfig config = PollerConfig.getInstance();
+			store = new TimeSeriesStore(new File(config.getString("store.dir", "data/tsdb")),
+					config.getLong("store.segment.hours", 2) * 3600000L,
+					config.getInt("store.segment.mb", 64) * 1024 * 1024,
+					config.getInt("store.chunk.samples", 120),
+					config.getLong("store.retention.hours", 24 * 7) * 3600000L,
+					config.getLong("store.chunk.flush.seconds", 300) * 1000L);
+		}
+		return store;
+	}
+
+	/**
+	 * @param dir
+	 * @param segmentMills
+	 * @param segmentBytes
+	 * @param chunkSamples
+	 * @param retentionMills
+	 * @param chunkFlushMills longest time a chunk stays open before it is written, 0 : only when full or on flush()
+	 */
+	public TimeSeriesStore(File dir, long segmentMills, int segmentBytes, int chunkSamples, long retentionMills, long chunkFlushMills) {
+		this.dir = dir;
+		this.chunkFlushMills = chunkFlushMills;
+		this.segmentMills = Math.max(60000L, segmentMills);
+		this.segmentBytes = Math.max(64 * 1024, segmentBytes);
+		this.chunkSamples = Math.max(2, chunkSamples);
+		this.retentionMills = retentionMills;
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		load();
+	}
+
+	@Override
+	public void write(MetricSink.Batch batch) throws IOException {
+		for (int i=0; i<batch.size(); i++) {
+			append(batch.device(i), batch.metric(i), batch.time(i), batch.value(i));
+		}
+		writeAgedChunks(System.currentTimeMillis());
+	}
+
+	/**
+	 * @description write the chunks open for chunkFlushMills or longer and force the segment files they went to
+	 * @param now
+	 */
+	public synchronized void writeAgedChunks(long now) {
+		if (chunkFlushMills <= 0 || now < nextFlushCheckMills) return;
+		nextFlushCheckMills = now + Math.max(1000L, chunkFlushMills / 10);
+		for (Series s : series.values()) {
+			if (s.open != null && now - s.openedMills >= chunkFlushMills) {
+				try {
+					writeChunk(s);
+				} catch (IOException e) {
+					System.err.println("store chunk write exception : " + e);
+				}
+			}
+		}
+		forceDirty();
+	}
+
+	/**
+	 * @description append one sample, samples of a series must come in time order
+	 * @param deviceId
+	 * @param metric
+	 * @param timeMills
+	 * @param value
+	 * @return {boolean} false if the sample is not later than the last sample of the series
+	 * @throws IOException
+	 */
+	public synchronized boolean append(String deviceId, String metric, long timeMills, double value) throws IOException {
+		String key = deviceId + '\0' + metric;
+		Series s = series.get(key);
+		if (s == null) {
+			s = new Series(key);
+			series.put(key, s);
+		}
+		if (timeMills <= s.lastTime) {
+			outOfOrder++;
+			return false;
+		}
+		long segment = segmentOf(timeMills);
+		if (s.open != null && (s.openSegment != segment || s.open.getCount() >= chunkSamples)) {
+			writeChunk(s);
+		}
+		if (s.open == null) {
+			s.open = new GorillaChunk();
+			s.openSegment = segment;
+			s.openedMills = System.currentTimeMillis();
+		}
+		s.open.append(timeMills, value);
+		s.lastTime = timeMills;
+		appended++;
+		return true;
+	}
+
+	/**
+	 * @description pass the samples of a series within [fromMills, toMills] to the visitor in time order
+	 * @param deviceId
+	 * @param metric
+	 * @param fromMills
+	 * @param toMills
+	 * @param visitor
+	 */
+	public synchronized void scan(String deviceId, String metric, long fromMills, long toMills, GorillaChunk.Visitor visitor) {
+		Series s = series.get(deviceId + '\0' + metric);
+		if (s == null) return;
+		for (Chunk chunk : s.chunks) {
+			if (chunk.lastTime >= fromMills && chunk.firstTime <= toMills) {
+				GorillaChunk.decode(chunk.segment.buf, chunk.offset, chunk.count, fromMills, toMills, visitor);
+			}
+		}
+		if (s.open != null && s.open.getLastTime() >= fromMills && s.open.getFirstTime() <= toMills) {
+			GorillaChunk.decode(ByteBuffer.wrap(s.open.toBytes()), 0, s.open.getCount(), fromMills, toMills, visitor);
+		}
+	}
+
+	/**
+	 * @param deviceId
+	 * @return {List<String>} metrics stored for the device
+	 */
+	public synchronized List<String> metricsOf(String deviceId) {
+		String prefix = deviceId + '\0';
+		List<String> result = new ArrayList<>();
+		for (String key : series.keySet()) {
+			if (key.startsWith(prefix)) result.add(key.substring(prefix.length()));
+		}
+		return result;
+	}
+
+	/**
+	 * @description write every open chunk and force the mapped files to disk
+	 */
+	public synchronized void flush() {
+		for (Series s : series.values()) {
+			if (s.open != null) {
+				try {
+					writeChunk(s);
+				} catch (IOException e) {
+					System.err.println("store flush exception : " + e);
+				}
+			}
+		}
+		forceDirty();
+	}
+
+	private void forceDirty() {
+		for (List<Segment> parts : segments.values()) {
+			for (Segment segment : parts) {
+				if (segment.dirty) {
+					segment.buf.force();
+					segment.dirty = false;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		flush();
+		System.out.println("time series store closed : " + this);
+	}
+
+	private long segmentOf(long timeMills) {
+		return timeMills - Math.floorMod(timeMills, segmentMills);
+	}
+
+	private void writeChunk(Series s) throws IOException {
+		GorillaChunk open = s.open;
+		s.open = null;
+		byte[] key = s.key.getBytes(StandardCharsets.UTF_8);
+		byte[] data = open.toBytes();
+		int length = 2 + key.length + 8 + 8 + 4 + 4 + data.length;
+		Segment segment = writableSegment(s.openSegment, 4 + length);
+
+		ByteBuffer buf = segment.buf;
+		int pos = segment.writePos;
+		buf.putInt(pos, length);
+		buf.putShort(pos + 4, (short) key.length);
+		int p = pos + 6;
+		for (byte b : key) buf.put(p++, b);
+		buf.putLong(p, open.getFirstTime());
+		buf.putLong(p + 8, open.getLastTime());
+		buf.putInt(p + 16, open.getCount());
+		buf.putInt(p + 20, data.length);
+		p += 24;
+		for (byte b : data) buf.put(p++, b);
+		segment.writePos = p;
+		segment.dirty = true;
+
+		s.chunks.add(new Chunk(segment, p - data.length, open.getCount(), open.getFirstTime(), open.getLastTime()));
+		chunksWritten++;
+		bytesWritten += 4 + length;
+	}
+
+	private Segment writableSegment(long start, int recordBytes) throws IOException {
+		if (headerBytes + recordBytes + 4 > segmentBytes) {
+			throw new IOException("chunk of " + recordBytes + " bytes does not fit in a segment file");
+		}
+		List<Segment> parts = segments.get(start);
+		Segment last = parts == null ? null : parts.get(parts.size() - 1);
+		if (last != null && last.writePos + recordBytes + 4 <= last.buf.capacity()) {
+			return last;
+		}
+		if (parts == null) {
+			parts = new ArrayList<>();
+			segments.put(start, parts);
+			expire(segments.lastKey());
+		}
+		Segment segment = new Segment(start, new File(dir, "seg-" + start + "-" + parts.size() + ".tsdb"));
+		segment.map(segmentBytes);
+		segment.buf.putInt(0, magic);
+		segment.buf.putInt(4, version);
+		segment.buf.putLong(8, start);
+		segment.buf.putLong(16, segmentMills);
+		segment.writePos = headerBytes;
+		parts.add(segment);
+		return segment;
+	}
+
+	/**
+	 * @description delete the segments that end before the retention, from the index and from disk
+	 */
+	private void expire(long newestStart) {
+		if (retentionMills <= 0) return;
+		long oldest = newestStart - retentionMills;
+		Map<Long,List<Segment>> expired = segments.headMap(oldest - segmentMills, true);
+		if (expired.isEmpty()) return;
+
+		for (Iterator<Series> it = series.values().iterator(); it.hasNext(); ) {
+			Series s = it.next();
+			s.chunks.removeIf(chunk -> chunk.segment.start <= oldest - segmentMills);
+			if (s.chunks.isEmpty() && s.open == null) it.remove();
+		}
+		for (List<Segment> parts : expired.values()) {
+			for (Segment segment : parts) {
+				segment.close();
+				if (!segment.file.delete()) {
+					System.err.println("store segment not deleted : " + segment.file);
+				}
+			}
+		}
+		expired.clear();
+	}
+
+	/**
+	 * @description index the records of the segment files in store.dir
+	 */
+	private void load() {
+		File[] files = dir.listFiles((d, name) -> name.startsWith("seg-") && name.endsWith(".tsdb"));
+		if (files == null) return;
+		Arrays.sort(files, (a, b) -> {
+			long[] x = nameOf(a), y = nameOf(b);
+			return x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]);
+		});
+		for (File file : files) {
+			long[] name = nameOf(file);
+			if (name == null) continue;
+			try {
+				Segment segment = new Segment(name[0], file);
+				segment.map(file.length());
+				if (segment.buf.getInt(0) != magic || segment.buf.getInt(4) != version) {
+					System.err.println("store segment skipped, not a segment file : " + file);
+					segment.close();
+					continue;
+				}
+				indexRecords(segment);
+				segments.computeIfAbsent(segment.start, s -> new ArrayList<>()).add(segment);
+			} catch (IOException e) {
+				System.err.println("store segment skipped : " + file + " " + e);
+			}
+		}
+		for (Series s : series.values()) {
+			s.chunks.sort((a, b) -> Long.compare(a.firstTime, b.firstTime));
+			if (!s.chunks.isEmpty()) s.lastTime = s.chunks.get(s.chunks.size() - 1).lastTime;
+		}
+		System.out.println("time series store " + dir + " : " + this);
+	}
+
+	private void indexRecords(Segment segment) {
+		ByteBuffer buf = segment.buf;
+		int pos = headerBytes;
+		while (pos + 4 <= buf.capacity()) {
+			int length = buf.getInt(pos);
+			if (length <= 0 || pos + 4 + length > buf.capacity()) break;
+			int keyLength = buf.getShort(pos + 4);
+			byte[] key = new byte[keyLength];
+			for (int i=0; i<keyLength; i++) key[i] = buf.get(pos + 6 + i);
+			int p = pos + 6 + keyLength;
+			String k = new String(key, StandardCharsets.UTF_8);
+			Series s = series.get(k);
+			if (s == null) {
+				s = new Series(k);
+				series.put(k, s);
+			}
+			s.chunks.add(new Chunk(segment, p + 24, buf.getInt(p + 16), buf.getLong(p), buf.getLong(p + 8)));
+			pos += 4 + length;
+		}
+		segment.writePos = pos;
+	}
+
+	private static long[] nameOf(File file) {
+		String[] parts = file.getName().replace(".tsdb", "").split("-");
+		try {
+			return new long[] {Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		int files = 0;
+		for (List<Segment> parts : segments.values()) files += parts.size();
+		return "series:" + series.size() + ", segment files:" + files + ", samples appended:" + appended
+				+ ", out of order:" + outOfOrder + ", chunks written:" + chunksWritten + ", bytes written:" + bytesWritten;
+	}
+
+	private static final class Series {
+		final String key;
+		final List<Chunk> chunks = new ArrayList<>(4);
+		GorillaChunk open;
+		long openSegment;
+		long openedMills;
+		long lastTime = Long.MIN_VALUE;
+
+		Series(String key) {
+			this.key = key;
+		}
+	}
+
+	private static final class Chunk {
+		final Segment segment;
+		final int offset;
+		final int count;
+		final long firstTime;
+		final long lastTime;
+
+		Chunk(Segment segment, int offset, int count, long firstTime, long lastTime) {
+			this.segment = segment;
+			this.offset = offset;
+			this.count = count;
+			this.firstTime = firstTime;
+			this.lastTime = lastTime;
+		}
+	}
+
+	private static final class Segment {
+		final long start;
+		final File file;
+		MappedByteBuffer buf;
+		int writePos;
+		boolean dirty;
+		private RandomAccessFile raf;
+
+		Segment(long start, File file) {
+			this.start = start;
+			this.file = file;
+		}
+
+		void map(long size) throws IOException {
+			raf = new RandomAccessFile(file, "rw");
+			buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		void close() {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				System.err.println("store segment close exception : " + e);
+			}
+		}
+	}
+}
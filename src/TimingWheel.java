@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * @description Hashed timing wheel (one slot per tick, entries further out than one revolution keep a round count).
+ * 	A single thread advances the wheel every tickMills and fires the entries of the current slot.
+ * 	Fire callbacks run on the wheel thread, so they must only hand work off (e.g. submit to the dispatcher).
+ */
+public class TimingWheel {
+
+	/**
+	 * @description callback of a scheduled entry
+	 */
+	public interface Task {
+		/**
+		 * @param plannedMills time the entry was scheduled for
+		 * @param actualMills time the wheel really fired it
+		 */
+		void fire(long plannedMills, long actualMills);
+	}
+
+	private final long tickMills;
+	private final List<List<Entry>> wheel;
+	private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+	private final Thread worker;
+
+	private volatile boolean running = true;
+	private long startMills;
+	private long tick = 0;
+
+	public TimingWheel(long tickMills, int wheelSize, String name) {
+		this.tickMills = tickMills;
+		this.wheel = new ArrayList<>(wheelSize);
+		for (int i=0; i<wheelSize; i++) {
+			wheel.add(new ArrayList<Entry>());
+		}
+		this.worker = new Thread(this::run, name);
+		this.worker.setDaemon(true);
+	}
+
+	public synchronized void start() {
+		startMills = System.currentTimeMillis();
+		worker.start();
+	}
+
+	public void stop() {
+		running = false;
+		worker.interrupt();
+	}
+
+	public long getTickMills() {
+		return tickMills;
+	}
+
+	/**
+	 * @description schedule a task at an absolute time (thread-safe, picked up on the next tick)
+	 * @param task
+	 * @param plannedMills
+	 */
+	public void schedule(Task task, long plannedMills) {
+		pending.add(new Entry(task, plannedMills));
+	}
+
+	private void run() {
+		while (running) {
+			long deadline = startMills + (tick + 1) * tickMills;
+			long sleep = deadline - System.currentTimeMillis();
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					if (!running) return;
+				}
+			}
+			transferPending();
+			expire(wheel.get((int) (tick % wheel.size())));
+			tick++;
+		}
+	}
+
+	/**
+	 * @description move newly scheduled entries into their slot; anything already due goes into the current tick
+	 */
+	private void transferPending() {
+		Entry e;
+		while ((e = pending.poll()) != null) {
+			long due = Math.max(tick, (e.plannedMills - startMills) / tickMills);
+			e.rounds = (due - tick) / wheel.size();
+			wheel.get((int) (due % wheel.size())).add(e);
+		}
+	}
+
+	private void expire(List<Entry> slot) {
+		final long now = System.currentTimeMillis();
+		Iterator<Entry> it = slot.iterator();
+		while (it.hasNext()) {
+			Entry e = it.next();
+			if (e.rounds > 0) {
+				e.rounds--;
+				continue;
+			}
+			it.remove();
+			try {
+				e.task.fire(e.plannedMills, now);
+			} catch (Exception ex) {
+				System.err.println("timing wheel task exception : " + ex);
+			}
+		}
+	}
+
+	private static final class Entry {
+		final Task task;
+		final long plannedMills;
+		long rounds;
+
+		Entry(Task task, long plannedMills) {
+			this.task = task;
+			this.plannedMills = plannedMills;
+		}
+	}
+}
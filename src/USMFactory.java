@@ -1,22 +1,146 @@
-import org.snmp4j.mp.MPv3;
-import org.snmp4j.security.SecurityProtocols;
-import org.snmp4j.security.USM;
-import org.snmp4j.smi.OctetString;
-
-public class USMFactory {
-	private USM usm= null;
-	private static USMFactory usmF = null ;
-
-	public static USMFactory getInstance(){
-		if(usmF == null ) usmF = new USMFactory();
-		return usmF;
-	}
-
-	public USMFactory(){
-		usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
-	}
-
-	public USM getUSM(){
-		return usm;
-	}
-}
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.mp.MessageProcessingModel;
+import org.snmp4j.security.SecurityModels;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+
+/**
+ * @description SNMPv3 security of the shared session, set up once and safe to use from every worker thread.
+ * 	- one USM with one local engine ID, registered in SecurityModels once; the session's MPv3 uses the same engine ID
+ * 	- the remote engine ID of an agent is learned from the first contact (snmp4j discovers it in-band) and kept
+ * 	  per address; later targets carry it, so no discovery round trip is needed
+ * 	- each user is added once per remote engine with keys localized for that engine, so the passphrase hashing
+ * 	  runs once per device instead of on every poll. A changed passphrase localizes again
+ * 	- engine boots / time of every remote engine stay in the USM time table, the local engine is never reset
+ * 	Until the engine ID of an agent is known, the user is also registered by name only, snmp4j localizes it on the first contact.
+ */
+public class USMFactory {
+
+	private static USMFactory usmF = null;
+
+	private final USM usm;
+
+	/**
+	 * address -> remote engine ID
+	 * */
+	private final Map<Address,OctetString> engineIds = new ConcurrentHashMap<>();
+
+	/**
+	 * engine ID / security name -> protocols and passphrases the keys were localized with
+	 * */
+	private final Map<String,String> localized = new ConcurrentHashMap<>();
+
+	/**
+	 * security name -> protocols and passphrases of the user registered by name only
+	 * */
+	private final Map<String,String> users = new ConcurrentHashMap<>();
+
+	public static synchronized USMFactory getInstance() {
+		if (usmF == null) usmF = new USMFactory();
+		return usmF;
+	}
+
+	private USMFactory() {
+		usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
+		SecurityModels.getInstance().addSecurityModel(usm);
+	}
+
+	public USM getUSM() {
+		return usm;
+	}
+
+	/**
+	 * @description use the USM engine ID for the session's MPv3 too, called once when the shared session is opened
+	 * @param snmp
+	 */
+	public void attach(Snmp snmp) {
+		MessageProcessingModel mp = snmp.getMessageProcessingModel(MessageProcessingModel.MPv3);
+		if (mp instanceof MPv3) {
+			((MPv3) mp).setLocalEngineID(usm.getLocalEngineID().getValue());
+		}
+	}
+
+	/**
+	 * @description security for one v3 poll of an agent : the user is registered (once) and the known engine ID returned
+	 * @param snmp
+	 * @param address agent address
+	 * @param securityName
+	 * @param authProtocol
+	 * @param authPassphrase
+	 * @param privProtocol
+	 * @param privPassphrase
+	 * @return {OctetString} authoritative engine ID of the agent, null until the first contact discovered it
+	 */
+	public OctetString prepare(Snmp snmp, Address address, String securityName, OID authProtocol, String authPassphrase,
+			OID privProtocol, String privPassphrase) {
+		String secret = authProtocol + "/" + authPassphrase + "/" + privProtocol + "/" + privPassphrase;
+		OctetString engineId = engineIdOf(snmp, address);
+		if (engineId == null) {
+			if (!secret.equals(users.get(securityName))) {
+				addUser(securityName, secret, authProtocol, authPassphrase, privProtocol, privPassphrase);
+			}
+			return null;
+		}
+		String key = engineId.toHexString() + "/" + securityName;
+		if (!secret.equals(localized.get(key))) {
+			localize(engineId, key, securityName, secret, authProtocol, authPassphrase, privProtocol, privPassphrase);
+		}
+		return engineId;
+	}
+
+	/**
+	 * @description forget the engine ID of an agent that stopped answering (it may have been replaced or reset),
+	 * 	the next poll discovers it again
+	 * @param snmp
+	 * @param address
+	 */
+	public void forget(Snmp snmp, Address address) {
+		OctetString engineId = engineIds.remove(address);
+		MessageProcessingModel mp = snmp.getMessageProcessingModel(MessageProcessingModel.MPv3);
+		if (engineId != null && mp instanceof MPv3) {
+			((MPv3) mp).removeEngineID(address);
+		}
+	}
+
+	public int getEngineCount() {
+		return engineIds.size();
+	}
+
+	private OctetString engineIdOf(Snmp snmp, Address address) {
+		OctetString engineId = engineIds.get(address);
+		if (engineId != null) return engineId;
+		MessageProcessingModel mp = snmp.getMessageProcessingModel(MessageProcessingModel.MPv3);
+		if (!(mp instanceof MPv3)) return null;
+		engineId = ((MPv3) mp).getEngineID(address);
+		if (engineId == null || engineId.length() == 0) return null;
+		engineIds.put(address, engineId);
+		return engineId;
+	}
+
+	private synchronized void addUser(String securityName, String secret, OID authProtocol, String authPassphrase,
+			OID privProtocol, String privPassphrase) {
+		if (secret.equals(users.get(securityName))) return;
+		OctetString name = new OctetString(securityName);
+		usm.addUser(name, new UsmUser(name, authProtocol, new OctetString(authPassphrase), privProtocol, new OctetString(privPassphrase)));
+		users.put(securityName, secret);
+	}
+
+	private synchronized void localize(OctetString engineId, String key, String securityName, String secret, OID authProtocol,
+			String authPassphrase, OID privProtocol, String privPassphrase) {
+		if (secret.equals(localized.get(key))) return;
+		SecurityProtocols protocols = usm.getSecurityProtocols();
+		byte[] authKey = protocols.passwordToKey(authProtocol, new OctetString(authPassphrase), engineId.getValue());
+		byte[] privKey = protocols.passwordToKey(privProtocol, authProtocol, new OctetString(privPassphrase), engineId.getValue());
+		// replaces the entry of the same engine ID and name, including one snmp4j localized with another passphrase
+		usm.addLocalizedUser(engineId.getValue(), new OctetString(securityName), authProtocol, authKey, privProtocol, privKey);
+		localized.put(key, secret);
+	}
+}